@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A pool of byte buffers.
+ * <p>
+ * Buffers are organized in size classes, each class being a power of two,
+ * between the minimum and maximum size of the pool. Requesting a buffer will
+ * return a buffer of the next matching size class. Buffers larger than the
+ * maximum size are not pooled, but allocated on every request.
+ * <p>
+ * Returned buffers are first kept in a small, thread local cache, and then in
+ * a shared, lock free, bounded pool. Buffers which don't fit in either are
+ * left to the garbage collector.
+ * <p>
+ * Buffers are borrowed using a {@link Lease}, which must be closed in order to
+ * return the buffer:
+ *
+ * <pre>
+ * try (BufferPool.Lease lease = pool.acquire(8192)) {
+ *     final ByteBuffer buffer = lease.buffer();
+ *     // use buffer
+ * }
+ * </pre>
+ *
+ * A sampled fraction of the leases is tracked, reporting leases which were
+ * garbage collected without being closed.
+ */
+@NonNullByDefault
+public final class BufferPool {
+
+    /**
+     * Buffers up to this size are cached thread locally.
+     */
+    private static final int MAX_THREAD_LOCAL_SIZE = 64 * 1024;
+
+    private static final BufferPool HEAP = builder().build();
+    private static final BufferPool DIRECT = builder().direct(true).build();
+
+    /**
+     * A borrowed buffer.
+     */
+    public interface Lease extends AutoCloseable {
+        /**
+         * Get the borrowed buffer.
+         * <p>
+         * The buffer is cleared, its limit is set to the requested size, and
+         * its byte order is {@link ByteOrder#BIG_ENDIAN big endian}. The
+         * capacity of the buffer may be larger than the requested size.
+         *
+         * @return the buffer, never returns {@code null}
+         * @throws IllegalStateException
+         *             if the lease was already closed
+         */
+        public ByteBuffer buffer();
+
+        /**
+         * Return the buffer to the pool.
+         * <p>
+         * The buffer must no longer be used after the lease was closed. Closing
+         * a lease more than once has no effect.
+         */
+        @Override
+        public void close();
+    }
+
+    /**
+     * A builder for {@link BufferPool} instances.
+     */
+    public static final class Builder {
+
+        private boolean direct;
+        private int minSize = 512;
+        private int maxSize = 1024 * 1024;
+        private int threadLocalCapacity = 4;
+        private long sharedCapacity = 4 * 1024 * 1024;
+        private int leakDetectionInterval = 256;
+        private @Nullable Consumer<? super Throwable> leakListener;
+
+        private Builder() {
+        }
+
+        /**
+         * Pool direct buffers instead of heap buffers.
+         * <p>
+         * The default is to pool heap buffers.
+         *
+         * @param direct
+         *            {@code true} for direct buffers
+         * @return this builder
+         */
+        public Builder direct(final boolean direct) {
+            this.direct = direct;
+            return this;
+        }
+
+        /**
+         * Set the range of pooled buffer sizes.
+         * <p>
+         * Both values are rounded up to the next power of two. The default is
+         * from 512 bytes to 1 MiB.
+         *
+         * @param minSize
+         *            the smallest buffer size, must be positive
+         * @param maxSize
+         *            the largest buffer size, must not be smaller than
+         *            {@code minSize}
+         * @return this builder
+         */
+        public Builder sizes(final int minSize, final int maxSize) {
+            if (minSize <= 0) {
+                throw new IllegalArgumentException("'minSize' must be positive");
+            }
+            if (maxSize < minSize) {
+                throw new IllegalArgumentException("'maxSize' must not be smaller than 'minSize'");
+            }
+            if (maxSize > 1 << 30) {
+                throw new IllegalArgumentException("'maxSize' must not exceed 1 GiB");
+            }
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Set the number of buffers, per size class, which each thread may
+         * cache.
+         * <p>
+         * Only buffers of up to 64 KiB are cached thread locally. The default
+         * is four buffers.
+         *
+         * @param threadLocalCapacity
+         *            the number of buffers, zero to disable thread local
+         *            caching
+         * @return this builder
+         */
+        public Builder threadLocalCapacity(final int threadLocalCapacity) {
+            if (threadLocalCapacity < 0) {
+                throw new IllegalArgumentException("'threadLocalCapacity' must not be negative");
+            }
+            this.threadLocalCapacity = threadLocalCapacity;
+            return this;
+        }
+
+        /**
+         * Set the number of bytes, per size class, which the shared pool may
+         * keep.
+         * <p>
+         * Each size class keeps at least one buffer. The default is 4 MiB.
+         *
+         * @param sharedCapacity
+         *            the number of bytes
+         * @return this builder
+         */
+        public Builder sharedCapacity(final long sharedCapacity) {
+            if (sharedCapacity < 0) {
+                throw new IllegalArgumentException("'sharedCapacity' must not be negative");
+            }
+            this.sharedCapacity = sharedCapacity;
+            return this;
+        }
+
+        /**
+         * Set the sampling interval of the leak detection.
+         * <p>
+         * On average, every n-th lease is tracked. Tracking a lease records the
+         * stack trace of its acquisition. The default is to track every 256th
+         * lease.
+         *
+         * @param leakDetectionInterval
+         *            the sampling interval, zero to disable leak detection
+         * @return this builder
+         */
+        public Builder leakDetectionInterval(final int leakDetectionInterval) {
+            if (leakDetectionInterval < 0) {
+                throw new IllegalArgumentException("'leakDetectionInterval' must not be negative");
+            }
+            this.leakDetectionInterval = leakDetectionInterval;
+            return this;
+        }
+
+        /**
+         * Set a listener for detected leaks.
+         * <p>
+         * The listener receives an exception, carrying the stack trace of the
+         * acquisition of the leaked buffer. It gets called by the thread
+         * acquiring a buffer, and must not throw.
+         *
+         * @param leakListener
+         *            the listener, may be {@code null}
+         * @return this builder
+         */
+        public Builder leakListener(@Nullable final Consumer<? super Throwable> leakListener) {
+            this.leakListener = leakListener;
+            return this;
+        }
+
+        /**
+         * Build a new pool.
+         *
+         * @return the new pool, never returns {@code null}
+         */
+        public BufferPool build() {
+            return new BufferPool(this);
+        }
+    }
+
+    private static final class Tracker extends WeakReference<LeaseImpl> {
+
+        private final Throwable origin;
+
+        private Tracker(final LeaseImpl lease, final ReferenceQueue<? super LeaseImpl> queue) {
+            super(lease, queue);
+            this.origin = new IllegalStateException("Leaked buffer lease, acquired at:");
+        }
+    }
+
+    private final class LeaseImpl extends AtomicBoolean implements Lease {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private @Nullable Tracker tracker;
+
+        private LeaseImpl(final ByteBuffer buffer, final int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        @Override
+        public ByteBuffer buffer() {
+            if (get()) {
+                throw new IllegalStateException("Lease is already closed");
+            }
+            return this.buffer;
+        }
+
+        @Override
+        public void close() {
+            if (compareAndSet(false, true)) {
+                final Tracker tracker = this.tracker;
+                if (tracker != null) {
+                    BufferPool.this.trackers.remove(tracker);
+                    tracker.clear();
+                }
+                release(this.buffer, this.sizeClass);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[Lease: %s, closed %s]", this.buffer, get());
+        }
+    }
+
+    private static final class Cache {
+        private final ByteBuffer[][] buffers;
+        private final int[] counts;
+
+        private Cache(final int sizeClasses, final int capacity) {
+            this.buffers = new ByteBuffer[sizeClasses][capacity];
+            this.counts = new int[sizeClasses];
+        }
+    }
+
+    private final boolean direct;
+    private final int minShift;
+    private final int sizeClasses;
+    private final int threadLocalClasses;
+    private final int threadLocalCapacity;
+    private final int[] sharedCapacities;
+    private final int leakDetectionInterval;
+    private final @Nullable Consumer<? super Throwable> leakListener;
+
+    private final ThreadLocal<Cache> caches;
+    private final Queue<ByteBuffer>[] shared;
+    private final AtomicInteger[] sharedCounts;
+
+    private final ReferenceQueue<LeaseImpl> leaked = new ReferenceQueue<>();
+    private final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private BufferPool(final Builder builder) {
+        this.direct = builder.direct;
+        this.minShift = shift(builder.minSize);
+        this.sizeClasses = shift(builder.maxSize) - this.minShift + 1;
+        this.threadLocalClasses = Math.max(0,
+                Math.min(this.sizeClasses, shift(MAX_THREAD_LOCAL_SIZE) - this.minShift + 1));
+        this.threadLocalCapacity = builder.threadLocalCapacity;
+        this.leakDetectionInterval = builder.leakDetectionInterval;
+        this.leakListener = builder.leakListener;
+
+        this.caches = ThreadLocal.withInitial(() -> new Cache(this.threadLocalClasses, this.threadLocalCapacity));
+
+        this.shared = new Queue[this.sizeClasses];
+        this.sharedCounts = new AtomicInteger[this.sizeClasses];
+        this.sharedCapacities = new int[this.sizeClasses];
+        for (int i = 0; i < this.sizeClasses; i++) {
+            this.shared[i] = new ConcurrentLinkedQueue<>();
+            this.sharedCounts[i] = new AtomicInteger();
+            this.sharedCapacities[i] = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    builder.sharedCapacity >> (this.minShift + i)));
+        }
+    }
+
+    /**
+     * Create a new builder.
+     *
+     * @return a new builder, never returns {@code null}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the shared pool of heap buffers.
+     * <p>
+     * The pool uses the default settings of {@link Builder}.
+     *
+     * @return the shared pool, never returns {@code null}
+     */
+    public static BufferPool heap() {
+        return HEAP;
+    }
+
+    /**
+     * Get the shared pool of direct buffers.
+     * <p>
+     * The pool uses the default settings of {@link Builder}.
+     *
+     * @return the shared pool, never returns {@code null}
+     */
+    public static BufferPool direct() {
+        return DIRECT;
+    }
+
+    /**
+     * Borrow a buffer.
+     *
+     * @param size
+     *            the requested size, in bytes
+     * @return the lease of the buffer, never returns {@code null}
+     */
+    public Lease acquire(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("'size' must not be negative");
+        }
+
+        this.leases.increment();
+
+        final int sizeClass = sizeClass(size);
+
+        ByteBuffer buffer = null;
+        if (sizeClass < this.sizeClasses) {
+            buffer = poll(sizeClass);
+        }
+        if (buffer == null) {
+            this.allocations.increment();
+            final int capacity = sizeClass < this.sizeClasses ? 1 << (this.minShift + sizeClass) : size;
+            buffer = this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        // cast to Buffer, as ByteBuffer only overrides these methods in Java 9+
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(size);
+        // a previous borrower may have changed the byte order
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        final LeaseImpl lease = new LeaseImpl(buffer, sizeClass);
+
+        if (this.leakDetectionInterval > 0) {
+            reportLeaks();
+            if (ThreadLocalRandom.current().nextInt(this.leakDetectionInterval) == 0) {
+                final Tracker tracker = new Tracker(lease, this.leaked);
+                this.trackers.add(tracker);
+                lease.tracker = tracker;
+            }
+        }
+
+        return lease;
+    }
+
+    /**
+     * Check if the pool provides direct buffers.
+     *
+     * @return {@code true} if the buffers are direct buffers
+     */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * Get the number of leases handed out.
+     *
+     * @return the number of leases
+     */
+    public long getLeaseCount() {
+        return this.leases.sum();
+    }
+
+    /**
+     * Get the number of buffers which had to be allocated.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocationCount() {
+        return this.allocations.sum();
+    }
+
+    /**
+     * Get the number of detected leaks.
+     * <p>
+     * As leak detection is sampled, this number only covers a fraction of the
+     * actual leaks.
+     *
+     * @return the number of detected leaks
+     */
+    public long getLeakCount() {
+        return this.leaks.sum();
+    }
+
+    /**
+     * Get the number of buffers in the shared pool.
+     *
+     * @return the number of buffers, not including the thread local caches
+     */
+    public int getSharedCount() {
+        int result = 0;
+        for (final AtomicInteger count : this.sharedCounts) {
+            result += count.get();
+        }
+        return result;
+    }
+
+    private @Nullable ByteBuffer poll(final int sizeClass) {
+        if (sizeClass < this.threadLocalClasses) {
+            final Cache cache = this.caches.get();
+            final int count = cache.counts[sizeClass];
+            if (count > 0) {
+                final ByteBuffer buffer = cache.buffers[sizeClass][count - 1];
+                cache.buffers[sizeClass][count - 1] = null;
+                cache.counts[sizeClass] = count - 1;
+                return buffer;
+            }
+        }
+
+        final ByteBuffer buffer = this.shared[sizeClass].poll();
+        if (buffer != null) {
+            this.sharedCounts[sizeClass].decrementAndGet();
+        }
+        return buffer;
+    }
+
+    private void release(final ByteBuffer buffer, final int sizeClass) {
+        if (sizeClass >= this.sizeClasses) {
+            // not pooled
+            return;
+        }
+
+        if (sizeClass < this.threadLocalClasses) {
+            final Cache cache = this.caches.get();
+            final int count = cache.counts[sizeClass];
+            if (count < this.threadLocalCapacity) {
+                cache.buffers[sizeClass][count] = buffer;
+                cache.counts[sizeClass] = count + 1;
+                return;
+            }
+        }
+
+        final AtomicInteger count = this.sharedCounts[sizeClass];
+        if (count.incrementAndGet() <= this.sharedCapacities[sizeClass]) {
+            this.shared[sizeClass].offer(buffer);
+        } else {
+            // pool is full, leave it to the GC
+            count.decrementAndGet();
+        }
+    }
+
+    private void reportLeaks() {
+        Reference<? extends LeaseImpl> reference;
+        while ((reference = this.leaked.poll()) != null) {
+            final Tracker tracker = (Tracker) reference;
+            if (!this.trackers.remove(tracker)) {
+                continue;
+            }
+            this.leaks.increment();
+            final Consumer<? super Throwable> listener = this.leakListener;
+            if (listener != null) {
+                listener.accept(tracker.origin);
+            }
+        }
+    }
+
+    private int sizeClass(final int size) {
+        if (size <= 1 << this.minShift) {
+            return 0;
+        }
+        return shift(size) - this.minShift;
+    }
+
+    /**
+     * Get the exponent of the next power of two.
+     */
+    private static int shift(final int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[BufferPool: direct %s, leases %s, allocations %s, leaks %s]", this.direct,
+                this.leases.sum(), this.allocations.sum(), this.leaks.sum());
+    }
+}
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Channel implementations for {@link Close}.
+ * <p>
+ * All calls are forwarded to the shielded channel, except for the
+ * {@link Channel#close()} call. Buffers are passed on as they are, so direct
+ * buffers stay direct.
+ */
+final class ChannelShields {
+
+    private ChannelShields() {
+    }
+
+    /**
+     * A shield, providing access to the shielded channel.
+     */
+    interface Shield {
+        public Channel shielded();
+    }
+
+    /**
+     * Unwrap all shields of a channel.
+     * <p>
+     * This allows the JDK to detect the actual channel type, e.g. for using
+     * {@code sendfile} in {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+     */
+    @SuppressWarnings("unchecked")
+    static <C extends Channel> C unwrap(final C channel) {
+        Channel result = channel;
+        while (result instanceof Shield) {
+            result = ((Shield) result).shielded();
+        }
+        return (C) result;
+    }
+
+    static class ShieldedReadableByteChannel<C extends ReadableByteChannel> implements ReadableByteChannel, Shield {
+
+        protected final C channel;
+
+        ShieldedReadableByteChannel(@NonNull final C channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Channel shielded() {
+            return this.channel;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return this.channel.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[shielding: %s]", super.toString(), this.channel);
+        }
+    }
+
+    static class ShieldedWritableByteChannel<C extends WritableByteChannel> implements WritableByteChannel, Shield {
+
+        protected final C channel;
+
+        ShieldedWritableByteChannel(@NonNull final C channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Channel shielded() {
+            return this.channel;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return this.channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[shielding: %s]", super.toString(), this.channel);
+        }
+    }
+
+    static final class ShieldedGatheringByteChannel extends ShieldedWritableByteChannel<GatheringByteChannel>
+            implements GatheringByteChannel {
+
+        ShieldedGatheringByteChannel(@NonNull final GatheringByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return this.channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs) throws IOException {
+            return this.channel.write(srcs);
+        }
+    }
+
+    static class ShieldedByteChannel<C extends ByteChannel> extends ShieldedReadableByteChannel<C>
+            implements ByteChannel {
+
+        ShieldedByteChannel(@NonNull final C channel) {
+            super(channel);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return this.channel.write(src);
+        }
+    }
+
+    static final class ShieldedScatterGatherChannel<C extends ScatteringByteChannel & GatheringByteChannel & ByteChannel>
+            extends ShieldedByteChannel<C> implements ScatteringGatheringByteChannel {
+
+        ShieldedScatterGatherChannel(@NonNull final C channel) {
+            super(channel);
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+            return this.channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts) throws IOException {
+            return this.channel.read(dsts);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return this.channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs) throws IOException {
+            return this.channel.write(srcs);
+        }
+    }
+
+    static final class ShieldedSeekableByteChannel extends ShieldedByteChannel<SeekableByteChannel>
+            implements SeekableByteChannel {
+
+        ShieldedSeekableByteChannel(@NonNull final SeekableByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel position(final long newPosition) throws IOException {
+            this.channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(final long size) throws IOException {
+            this.channel.truncate(size);
+            return this;
+        }
+    }
+
+    /**
+     * A shielded file channel.
+     * <p>
+     * As {@link FileChannel#close()} is final, closing the shield marks the
+     * shield as closed, so that {@link #isOpen()} returns {@code false}.
+     * However, the shielded channel stays open and calls are still forwarded.
+     */
+    static final class ShieldedFileChannel extends FileChannel implements Shield {
+
+        private final FileChannel channel;
+
+        ShieldedFileChannel(@NonNull final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public Channel shielded() {
+            return this.channel;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            return this.channel.read(dst);
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+            return this.channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            return this.channel.write(src);
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return this.channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.channel.position();
+        }
+
+        @Override
+        public FileChannel position(final long newPosition) throws IOException {
+            this.channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(final long size) throws IOException {
+            this.channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(final boolean metaData) throws IOException {
+            this.channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(final long position, final long count, final WritableByteChannel target)
+                throws IOException {
+            // unwrap, so that the JDK can use zero-copy transfers
+            return this.channel.transferTo(position, count, unwrap(target));
+        }
+
+        @Override
+        public long transferFrom(final ReadableByteChannel src, final long position, final long count)
+                throws IOException {
+            // unwrap, so that the JDK can use zero-copy transfers
+            return this.channel.transferFrom(unwrap(src), position, count);
+        }
+
+        @Override
+        public int read(final ByteBuffer dst, final long position) throws IOException {
+            return this.channel.read(dst, position);
+        }
+
+        @Override
+        public int write(final ByteBuffer src, final long position) throws IOException {
+            return this.channel.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+            return this.channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+            return this.channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+            return this.channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            // don't close the shielded channel
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[shielding: %s]", super.toString(), this.channel);
+        }
+    }
+}
@@ -10,18 +10,44 @@
  *******************************************************************************/
 package io.glutamate.io;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
 import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.glutamate.io.ChannelShields.ShieldedByteChannel;
+import io.glutamate.io.ChannelShields.ShieldedFileChannel;
+import io.glutamate.io.ChannelShields.ShieldedGatheringByteChannel;
+import io.glutamate.io.ChannelShields.ShieldedReadableByteChannel;
+import io.glutamate.io.ChannelShields.ShieldedScatterGatherChannel;
+import io.glutamate.io.ChannelShields.ShieldedSeekableByteChannel;
+import io.glutamate.io.ChannelShields.ShieldedWritableByteChannel;
 
 /**
- * Help with closing streams.
+ * Help with closing streams and channels.
  */
 public final class Close {
 
@@ -111,6 +137,99 @@ public final class Close {
             return this.stream.markSupported();
         }
 
+        /*
+         * The following methods override the bulk methods of Java 9+, and so
+         * intentionally lack the @Override annotation. On Java 8 they are
+         * simply additional methods.
+         */
+
+        public long transferTo(final OutputStream out) throws IOException {
+            Objects.requireNonNull(out);
+
+            final OutputStream target = unwrap(out);
+
+            if (this.stream instanceof FileInputStream && target instanceof FileOutputStream) {
+                final long transferred = transferChannels((FileInputStream) this.stream, (FileOutputStream) target);
+                // the file might have grown in the meantime
+                return transferred + copy(this.stream, target);
+            }
+
+            if (TRANSFER_TO != null) {
+                try {
+                    return (long) TRANSFER_TO.invokeExact(this.stream, target);
+                } catch (final Throwable e) {
+                    throw rethrow(e);
+                }
+            }
+
+            return copy(this.stream, target);
+        }
+
+        public byte[] readAllBytes() throws IOException {
+            if (READ_ALL_BYTES != null) {
+                try {
+                    return (byte[]) READ_ALL_BYTES.invokeExact(this.stream);
+                } catch (final Throwable e) {
+                    throw rethrow(e);
+                }
+            }
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(this.stream, out);
+            return out.toByteArray();
+        }
+
+        public byte[] readNBytes(final int len) throws IOException {
+            if (len < 0) {
+                throw new IllegalArgumentException("'len' must not be negative");
+            }
+
+            if (READ_N_BYTES != null) {
+                try {
+                    return (byte[]) READ_N_BYTES.invokeExact(this.stream, len);
+                } catch (final Throwable e) {
+                    throw rethrow(e);
+                }
+            }
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(len, BUFFER_SIZE));
+            try (BufferPool.Lease lease = BufferPool.heap().acquire(Math.min(len, BUFFER_SIZE))) {
+                final byte[] buffer = lease.buffer().array();
+                int remaining = len;
+                int read;
+                while (remaining > 0
+                        && (read = this.stream.read(buffer, 0, Math.min(remaining, buffer.length))) >= 0) {
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            return out.toByteArray();
+        }
+
+        public int readNBytes(final byte[] b, final int off, final int len) throws IOException {
+            if (READ_N_BYTES_INTO != null) {
+                try {
+                    return (int) READ_N_BYTES_INTO.invokeExact(this.stream, b, off, len);
+                } catch (final Throwable e) {
+                    throw rethrow(e);
+                }
+            }
+
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            int n = 0;
+            while (n < len) {
+                final int read = this.stream.read(b, off + n, len - n);
+                if (read < 0) {
+                    break;
+                }
+                n += read;
+            }
+            return n;
+        }
+
         @Override
         public void close() throws IOException {
         }
@@ -121,6 +240,90 @@ public final class Close {
         }
     }
 
+    private static final int BUFFER_SIZE = 8192;
+
+    // bulk methods of InputStream, only available on Java 9+
+
+    private static final @Nullable MethodHandle TRANSFER_TO = findInputStreamMethod("transferTo", long.class,
+            OutputStream.class);
+    private static final @Nullable MethodHandle READ_ALL_BYTES = findInputStreamMethod("readAllBytes",
+            byte[].class);
+    private static final @Nullable MethodHandle READ_N_BYTES = findInputStreamMethod("readNBytes", byte[].class,
+            int.class);
+    private static final @Nullable MethodHandle READ_N_BYTES_INTO = findInputStreamMethod("readNBytes", int.class,
+            byte[].class, int.class, int.class);
+
+    private static @Nullable MethodHandle findInputStreamMethod(final String name, final Class<?> returnType,
+            final Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(InputStream.class, name,
+                    MethodType.methodType(returnType, parameterTypes));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static IOException rethrow(final Throwable e) {
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IOException(e);
+    }
+
+    private static OutputStream unwrap(final OutputStream stream) {
+        OutputStream result = stream;
+        while (result instanceof ShieldedOutputStream) {
+            result = ((ShieldedOutputStream) result).stream;
+        }
+        return result;
+    }
+
+    private static long copy(final InputStream in, final OutputStream out) throws IOException {
+        try (BufferPool.Lease lease = BufferPool.heap().acquire(BUFFER_SIZE)) {
+            final byte[] buffer = lease.buffer().array();
+            long result = 0;
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                result += read;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Transfer the remaining content of a file stream, using channels.
+     * <p>
+     * This allows the operating system to copy the data without passing it
+     * through the JVM.
+     */
+    private static long transferChannels(final FileInputStream in, final FileOutputStream out) throws IOException {
+        final FileChannel source = in.getChannel();
+        final FileChannel target = out.getChannel();
+
+        final long start = source.position();
+        final long size = source.size();
+
+        long position = start;
+        while (position < size) {
+            final long transferred = source.transferTo(position, size - position, target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+
+        source.position(position);
+
+        return position - start;
+    }
+
     private static final class ShieldedWriter extends Writer {
 
         private final Writer writer;
@@ -303,4 +506,188 @@ public final class Close {
         Objects.requireNonNull(reader);
         return new ShieldedReader(reader);
     }
+
+    /**
+     * Shields the channel from being closed.
+     *
+     * @param channel
+     *            to shield
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static ReadableByteChannel shield(@NonNull final ReadableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedReadableByteChannel<>(channel);
+    }
+
+    /**
+     * Shields the channel from being closed.
+     *
+     * @param channel
+     *            to shield
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static WritableByteChannel shield(@NonNull final WritableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedWritableByteChannel<>(channel);
+    }
+
+    /**
+     * Shields the channel from being closed.
+     *
+     * @param channel
+     *            to shield
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static ByteChannel shield(@NonNull final ByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedByteChannel<>(channel);
+    }
+
+    /**
+     * Shields the channel from being closed.
+     *
+     * @param channel
+     *            to shield
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static GatheringByteChannel shield(@NonNull final GatheringByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedGatheringByteChannel(channel);
+    }
+
+    /**
+     * Shields the channel from being closed.
+     * <p>
+     * This variant is used for channels supporting reading and writing, with
+     * scattering and gathering, like {@link java.nio.channels.SocketChannel}.
+     *
+     * @param channel
+     *            to shield
+     * @param <C>
+     *            the type of the channel
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static <C extends ScatteringByteChannel & GatheringByteChannel & ByteChannel>
+            ScatteringGatheringByteChannel shield(@NonNull final C channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedScatterGatherChannel<>(channel);
+    }
+
+    /**
+     * Shields the channel from being closed.
+     *
+     * @param channel
+     *            to shield
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static SeekableByteChannel shield(@NonNull final SeekableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedSeekableByteChannel(channel);
+    }
+
+    /**
+     * Shields the channel from being closed.
+     * <p>
+     * Transfers using {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+     * and {@link FileChannel#transferFrom(ReadableByteChannel, long, long)} unwrap
+     * shielded channels, so that zero-copy transfers are still possible.
+     * <p>
+     * <strong>Note:</strong> As {@link FileChannel#close()} is final, closing the
+     * shield marks the shield itself as closed, and {@link FileChannel#isOpen()}
+     * of the shield will return {@code false}. The input channel stays open, and
+     * calls to the shield will still be forwarded.
+     *
+     * @param channel
+     *            to shield
+     * @return A new channel which forwards calls to the input channel, except for
+     *         the {@link AutoCloseable#close()} call
+     */
+    public static FileChannel shield(@NonNull final FileChannel channel) {
+        Objects.requireNonNull(channel);
+        return new ShieldedFileChannel(channel);
+    }
+
+    /**
+     * Unmap a memory mapped buffer.
+     * <p>
+     * Mapped buffers are normally only unmapped when they get garbage
+     * collected. This method releases the mapping immediately.
+     * <p>
+     * <strong>Note:</strong> The buffer, and all buffers derived from it, must
+     * no longer be used after it was unmapped. Accessing such a buffer will
+     * crash the JVM.
+     *
+     * @param buffer
+     *            the buffer to unmap, must be the buffer returned by
+     *            {@link FileChannel#map(FileChannel.MapMode, long, long)}, not
+     *            a slice or duplicate of it
+     * @return {@code true} if the buffer got unmapped, {@code false} if
+     *         unmapping is not supported by the JVM, in which case the buffer
+     *         will be unmapped by the garbage collector
+     * @throws IllegalArgumentException
+     *             if the buffer is a slice or duplicate of a mapped buffer
+     */
+    public static boolean unmap(@NonNull final MappedByteBuffer buffer) {
+        Objects.requireNonNull(buffer);
+
+        final MethodHandle unmap = UNMAP;
+        if (unmap == null) {
+            return false;
+        }
+
+        try {
+            unmap.invokeExact((ByteBuffer) buffer);
+            return true;
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            return false;
+        }
+    }
+
+    private static final @Nullable MethodHandle UNMAP = findUnmap();
+
+    private static @Nullable MethodHandle findUnmap() {
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        // Unsafe.invokeCleaner is only available on Java 9+
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return lookup.findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+        }
+
+        // Java 8 provides a cleaner on each direct buffer, but not on slices and duplicates
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Class<?> cleanerClass = cleaner.getReturnType();
+            final MethodHandle requireCleaner = lookup
+                    .findStatic(Close.class, "requireCleaner", MethodType.methodType(Object.class, Object.class))
+                    .asType(MethodType.methodType(cleanerClass, cleanerClass));
+            final MethodHandle clean = lookup.findVirtual(cleanerClass, "clean", MethodType.methodType(void.class));
+            return MethodHandles
+                    .filterReturnValue(MethodHandles.filterReturnValue(lookup.unreflect(cleaner), requireCleaner),
+                            clean)
+                    .asType(MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static Object requireCleaner(@Nullable final Object cleaner) {
+        if (cleaner == null) {
+            throw new IllegalArgumentException("Buffer is a slice or duplicate of a mapped buffer");
+        }
+        return cleaner;
+    }
 }
@@ -0,0 +1,492 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A memory mapped file, providing access to its records.
+ * <p>
+ * The file is mapped in windows of up to 2 GiB, so that files larger than the
+ * limit of a single {@link MappedByteBuffer} can be processed. Records are
+ * separated by a delimiter, and handed out as slices of the mapped windows,
+ * without copying the data. A single record must not exceed the window size.
+ * <p>
+ * The size of the file is recorded when the file is opened, data appended
+ * later on is not visible.
+ * <p>
+ * Records may be processed in parallel, as the {@link Spliterator} splits the
+ * file at record boundaries:
+ *
+ * <pre>
+ * try (MappedFile file = MappedFile.open(path)) {
+ *     long errors = file.lines()
+ *             .parallel()
+ *             .filter(line -&gt; line.toString().contains("ERROR"))
+ *             .count();
+ * }
+ * </pre>
+ *
+ * Windows stay mapped until the file is closed, so that records may be
+ * collected, sorted or buffered by the stream.
+ * <p>
+ * Scanning a large file with small windows may exceed the number of mappings
+ * allowed for a process though. For this case, windows can be unmapped eagerly
+ * (see {@link #open(Path, int, boolean)}), as soon as a spliterator moves on to
+ * the next window. Records must then be consumed right away, or be copied.
+ * <p>
+ * <strong>Note:</strong> A record must no longer be used once its window was
+ * unmapped, as accessing unmapped memory will crash the JVM.
+ */
+@NonNullByDefault
+public final class MappedFile implements AutoCloseable {
+
+    /**
+     * Ranges smaller than this will not be split any further.
+     */
+    private static final long MIN_SPLIT_SIZE = 64 * 1024;
+
+    private static final int SCAN_SIZE = 8192;
+
+    private final class RecordSpliterator implements Spliterator<ByteBuffer> {
+
+        private final byte delimiter;
+
+        /**
+         * The start of the next record.
+         */
+        private long position;
+        /**
+         * The end of the range, which is either the end of the file, or the
+         * start of a record.
+         */
+        private final long end;
+
+        private @Nullable MappedByteBuffer window;
+        private long windowStart;
+
+        private RecordSpliterator(final byte delimiter, final long position, final long end) {
+            this.delimiter = delimiter;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super ByteBuffer> action) {
+            Objects.requireNonNull(action);
+
+            while (this.position < this.end) {
+
+                MappedByteBuffer window = this.window;
+                if (window == null) {
+                    window = this.window = map(this.position, this.end);
+                    this.windowStart = this.position;
+                }
+
+                final int start = (int) (this.position - this.windowStart);
+                final int limit = window.limit();
+
+                for (int i = start; i < limit; i++) {
+                    if (window.get(i) == this.delimiter) {
+                        this.position = this.windowStart + i + 1;
+                        action.accept(slice(window, start, i));
+                        return true;
+                    }
+                }
+
+                if (this.windowStart + limit >= this.end) {
+                    // last record, without a delimiter
+                    this.position = this.end;
+                    action.accept(slice(window, start, limit));
+                    return true;
+                }
+
+                if (start == 0) {
+                    throw new IllegalStateException(
+                            String.format("Record at position %s exceeds the window size of %s bytes",
+                                    this.position, MappedFile.this.windowSize));
+                }
+
+                // the record crosses the window boundary, map the next window starting with the record
+
+                this.window = null;
+                release(window);
+            }
+
+            return false;
+        }
+
+        @Override
+        public @Nullable Spliterator<ByteBuffer> trySplit() {
+            if (this.end - this.position < MIN_SPLIT_SIZE) {
+                return null;
+            }
+
+            final long split = findRecordStart(this.position + (this.end - this.position) / 2, this.end,
+                    this.delimiter);
+            if (split < 0) {
+                return null;
+            }
+
+            final RecordSpliterator prefix = new RecordSpliterator(this.delimiter, this.position, split);
+
+            // drop the window, when it doesn't cover the remaining range
+
+            final MappedByteBuffer window = this.window;
+            if (window != null && split >= this.windowStart + window.limit()) {
+                this.window = null;
+                release(window);
+            }
+            this.position = split;
+
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            // unknown, report the number of bytes as upper bound
+            return this.end - this.position;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private final boolean unmapEagerly;
+
+    /**
+     * The windows currently mapped, compared by identity.
+     */
+    private final Set<MappedByteBuffer> mappings = Collections
+            .synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private MappedFile(final FileChannel channel, final int windowSize, final boolean unmapEagerly)
+            throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.windowSize = windowSize;
+        this.unmapEagerly = unmapEagerly;
+    }
+
+    /**
+     * Open a file, using the maximum window size.
+     *
+     * @param path
+     *            the file to open
+     * @return the mapped file, never returns {@code null}
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public static MappedFile open(final Path path) throws IOException {
+        return open(path, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Open a file, keeping all windows mapped until the file is closed.
+     * <p>
+     * Smaller windows reduce the amount of address space which gets reserved
+     * at once. However, each record must fit into a single window.
+     *
+     * @param path
+     *            the file to open
+     * @param windowSize
+     *            the maximum size of a mapped window, in bytes
+     * @return the mapped file, never returns {@code null}
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public static MappedFile open(final Path path, final int windowSize) throws IOException {
+        return open(path, windowSize, false);
+    }
+
+    /**
+     * Open a file.
+     * <p>
+     * When unmapping windows eagerly, a record is only valid until its
+     * spliterator moved on to the next window. So it must not be kept, e.g. by
+     * collecting or sorting the stream, without copying it first.
+     *
+     * @param path
+     *            the file to open
+     * @param windowSize
+     *            the maximum size of a mapped window, in bytes
+     * @param unmapEagerly
+     *            {@code true} to unmap a window as soon as a spliterator moved
+     *            on, {@code false} to keep it mapped until the file is closed
+     * @return the mapped file, never returns {@code null}
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public static MappedFile open(final Path path, final int windowSize, final boolean unmapEagerly)
+            throws IOException {
+        Objects.requireNonNull(path);
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("'windowSize' must be positive");
+        }
+
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedFile(channel, windowSize, unmapEagerly);
+        } catch (final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the size of the file.
+     *
+     * @return the size of the file, when it was opened
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Get a spliterator of all records.
+     * <p>
+     * The records don't contain the delimiter. A trailing delimiter at the end
+     * of the file does not start a new record.
+     *
+     * @param delimiter
+     *            the delimiter separating the records
+     * @return the new spliterator, never returns {@code null}
+     */
+    public Spliterator<ByteBuffer> spliterator(final byte delimiter) {
+        return new RecordSpliterator(delimiter, 0, this.size);
+    }
+
+    /**
+     * Stream all records.
+     * <p>
+     * The records are read-only slices of the mapped file.
+     *
+     * @param delimiter
+     *            the delimiter separating the records
+     * @return the sequential stream of records, never returns {@code null}
+     * @see #spliterator(byte)
+     */
+    public Stream<ByteBuffer> records(final byte delimiter) {
+        return StreamSupport.stream(spliterator(delimiter), false);
+    }
+
+    /**
+     * Stream all lines, decoded as UTF-8.
+     * <p>
+     * Lines are terminated by {@code \n} or {@code \r\n}. Lines consisting of
+     * ASCII characters only are not decoded, but wrap the mapped bytes.
+     *
+     * @return the sequential stream of lines, never returns {@code null}
+     */
+    public Stream<CharSequence> lines() {
+        return records((byte) '\n').map(MappedFile::toCharSequence);
+    }
+
+    /**
+     * Convert a line to a character sequence.
+     * <p>
+     * A trailing {@code \r} is removed.
+     */
+    static CharSequence toCharSequence(final ByteBuffer line) {
+        int limit = line.limit();
+        if (limit > 0 && line.get(limit - 1) == '\r') {
+            limit--;
+        }
+
+        for (int i = 0; i < limit; i++) {
+            if (line.get(i) < 0) {
+                // not ASCII
+                return UTF_8.decode(slice(line, 0, limit));
+            }
+        }
+
+        return new AsciiSequence(slice(line, 0, limit));
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int start, final int end) {
+        final ByteBuffer result = buffer.duplicate();
+        // cast to Buffer, as ByteBuffer only overrides these methods in Java 9+
+        ((Buffer) result).limit(end);
+        ((Buffer) result).position(start);
+        return result.slice();
+    }
+
+    /**
+     * Map a window of the file.
+     */
+    private MappedByteBuffer map(final long position, final long end) {
+        if (this.closed.get()) {
+            throw new IllegalStateException("File is already closed");
+        }
+
+        try {
+            final MappedByteBuffer buffer = this.channel.map(MapMode.READ_ONLY, position,
+                    Math.min(this.windowSize, end - position));
+            this.mappings.add(buffer);
+            return buffer;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Release a window, which a spliterator no longer uses.
+     */
+    private void release(final MappedByteBuffer window) {
+        if (this.unmapEagerly) {
+            unmap(window);
+        }
+    }
+
+    /**
+     * Unmap a window, unless it was already unmapped by closing the file.
+     */
+    private void unmap(final MappedByteBuffer window) {
+        if (this.mappings.remove(window)) {
+            Close.unmap(window);
+        }
+    }
+
+    /**
+     * Find the start of the next record.
+     *
+     * @return the position of the first record starting after
+     *         {@code position}, or {@code -1} if there is none before
+     *         {@code end}
+     */
+    private long findRecordStart(final long position, final long end, final byte delimiter) {
+        try (BufferPool.Lease lease = BufferPool.heap().acquire(SCAN_SIZE)) {
+            final ByteBuffer buffer = lease.buffer();
+
+            long current = position;
+            while (current < end) {
+                ((Buffer) buffer).clear();
+                ((Buffer) buffer).limit((int) Math.min(buffer.capacity(), end - current));
+
+                final int read = this.channel.read(buffer, current);
+                if (read <= 0) {
+                    return -1;
+                }
+
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == delimiter) {
+                        final long result = current + i + 1;
+                        return result < end ? result : -1;
+                    }
+                }
+
+                current += read;
+            }
+
+            return -1;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Close the file and unmap all windows.
+     * <p>
+     * Records must no longer be used after the file was closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            final List<MappedByteBuffer> mappings;
+            synchronized (this.mappings) {
+                mappings = new ArrayList<>(this.mappings);
+            }
+            for (final MappedByteBuffer buffer : mappings) {
+                unmap(buffer);
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[MappedFile: size %s, window size %s, mappings %s, unmap eagerly %s, closed %s]",
+                this.size, this.windowSize, this.mappings.size(), this.unmapEagerly, this.closed.get());
+    }
+
+    /**
+     * A character sequence of ASCII bytes.
+     */
+    private static final class AsciiSequence implements CharSequence {
+
+        private final ByteBuffer buffer;
+
+        private AsciiSequence(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int length() {
+            return this.buffer.limit();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return (char) this.buffer.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new AsciiSequence(slice(this.buffer, start, end));
+        }
+
+        @Override
+        public String toString() {
+            final byte[] bytes = new byte[this.buffer.limit()];
+            this.buffer.duplicate().get(bytes);
+            return new String(bytes, US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Count bytes and operations of streams and channels.
+ * <p>
+ * A meter wraps streams, readers, writers and channels, counting the number of
+ * read and write operations, and the number of bytes (or characters for
+ * readers and writers) transferred. All streams wrapped by the same meter
+ * report to the same counters. The counters are backed by {@link LongAdder}s,
+ * so that concurrent writers don't contend on them.
+ * <p>
+ * A meter created with {@link #createTimed()} additionally records the time
+ * spent blocked in read and write calls. As this requires two calls to
+ * {@link System#nanoTime()} for each operation, it must be enabled explicitly.
+ * <p>
+ * The bytes per operation help finding streams which perform many, tiny,
+ * unbuffered operations.
+ */
+@NonNullByDefault
+public final class Meter {
+
+    /**
+     * A snapshot of the meter statistics.
+     */
+    public static final class Statistics {
+
+        private final long readCount;
+        private final long bytesRead;
+        private final long readTime;
+        private final long writeCount;
+        private final long bytesWritten;
+        private final long writeTime;
+        private final long elapsed;
+
+        private Statistics(final long readCount, final long bytesRead, final long readTime, final long writeCount,
+                final long bytesWritten, final long writeTime, final long elapsed) {
+            this.readCount = readCount;
+            this.bytesRead = bytesRead;
+            this.readTime = readTime;
+            this.writeCount = writeCount;
+            this.bytesWritten = bytesWritten;
+            this.writeTime = writeTime;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * Get the number of read operations.
+         *
+         * @return the number of read operations, including those which
+         *         reached the end of the stream
+         */
+        public long getReadCount() {
+            return this.readCount;
+        }
+
+        /**
+         * Get the number of bytes read.
+         *
+         * @return the number of bytes read
+         */
+        public long getBytesRead() {
+            return this.bytesRead;
+        }
+
+        /**
+         * Get the average number of bytes per read operation.
+         *
+         * @return the average number of bytes, zero if nothing was read
+         */
+        public double getBytesPerRead() {
+            return this.readCount == 0 ? 0.0 : (double) this.bytesRead / this.readCount;
+        }
+
+        /**
+         * Get the average read throughput, since the meter was created.
+         *
+         * @return the number of bytes read per second
+         */
+        public double getReadThroughput() {
+            return throughput(this.bytesRead, this.elapsed);
+        }
+
+        /**
+         * Get the total time spent blocked in read operations.
+         *
+         * @return the time spent reading, always zero unless the meter was
+         *         created using {@link Meter#createTimed()}
+         */
+        public Duration getReadTime() {
+            return Duration.ofNanos(this.readTime);
+        }
+
+        /**
+         * Get the number of write operations.
+         *
+         * @return the number of write operations
+         */
+        public long getWriteCount() {
+            return this.writeCount;
+        }
+
+        /**
+         * Get the number of bytes written.
+         *
+         * @return the number of bytes written
+         */
+        public long getBytesWritten() {
+            return this.bytesWritten;
+        }
+
+        /**
+         * Get the average number of bytes per write operation.
+         *
+         * @return the average number of bytes, zero if nothing was written
+         */
+        public double getBytesPerWrite() {
+            return this.writeCount == 0 ? 0.0 : (double) this.bytesWritten / this.writeCount;
+        }
+
+        /**
+         * Get the average write throughput, since the meter was created.
+         *
+         * @return the number of bytes written per second
+         */
+        public double getWriteThroughput() {
+            return throughput(this.bytesWritten, this.elapsed);
+        }
+
+        /**
+         * Get the total time spent blocked in write operations.
+         *
+         * @return the time spent writing, always zero unless the meter was
+         *         created using {@link Meter#createTimed()}
+         */
+        public Duration getWriteTime() {
+            return Duration.ofNanos(this.writeTime);
+        }
+
+        /**
+         * Get the time since the meter was created.
+         *
+         * @return the time covered by this snapshot
+         */
+        public Duration getElapsed() {
+            return Duration.ofNanos(this.elapsed);
+        }
+
+        private static double throughput(final long bytes, final long elapsed) {
+            return elapsed <= 0 ? 0.0 : bytes * 1_000_000_000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[Statistics: reads %s, bytes read %s, read time %s, "
+                    + "writes %s, bytes written %s, write time %s, elapsed %s]",
+                    this.readCount, this.bytesRead, getReadTime(), this.writeCount, this.bytesWritten,
+                    getWriteTime(), getElapsed());
+        }
+    }
+
+    private final boolean timed;
+    private final long created = System.nanoTime();
+
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder readTime = new LongAdder();
+    private final LongAdder writeCount = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder writeTime = new LongAdder();
+
+    private Meter(final boolean timed) {
+        this.timed = timed;
+    }
+
+    /**
+     * Create a new meter, counting bytes and operations.
+     *
+     * @return the new meter, never returns {@code null}
+     */
+    public static Meter create() {
+        return new Meter(false);
+    }
+
+    /**
+     * Create a new meter, counting bytes and operations, and recording the
+     * time spent in operations.
+     *
+     * @return the new meter, never returns {@code null}
+     */
+    public static Meter createTimed() {
+        return new Meter(true);
+    }
+
+    /**
+     * Check if the meter records the time spent in operations.
+     *
+     * @return {@code true} if the meter records time
+     */
+    public boolean isTimed() {
+        return this.timed;
+    }
+
+    /**
+     * Get a snapshot of the current statistics.
+     * <p>
+     * As the counters are read one after the other, the snapshot is not
+     * guaranteed to be consistent while operations are ongoing.
+     *
+     * @return the statistics, never returns {@code null}
+     */
+    public Statistics getStatistics() {
+        return new Statistics(
+                this.readCount.sum(), this.bytesRead.sum(), this.readTime.sum(),
+                this.writeCount.sum(), this.bytesWritten.sum(), this.writeTime.sum(),
+                System.nanoTime() - this.created);
+    }
+
+    /**
+     * Wrap an input stream.
+     * <p>
+     * Closing the returned stream will close the original stream.
+     *
+     * @param stream
+     *            the stream to wrap
+     * @return the metered stream, never returns {@code null}
+     */
+    public InputStream wrap(@NonNull final InputStream stream) {
+        Objects.requireNonNull(stream);
+        return new MeteredStreams.MeteredInputStream(stream, this);
+    }
+
+    /**
+     * Wrap an output stream.
+     * <p>
+     * Closing the returned stream will close the original stream.
+     *
+     * @param stream
+     *            the stream to wrap
+     * @return the metered stream, never returns {@code null}
+     */
+    public OutputStream wrap(@NonNull final OutputStream stream) {
+        Objects.requireNonNull(stream);
+        return new MeteredStreams.MeteredOutputStream(stream, this);
+    }
+
+    /**
+     * Wrap a reader.
+     * <p>
+     * Readers count characters instead of bytes.
+     * <p>
+     * Closing the returned reader will close the original reader.
+     *
+     * @param reader
+     *            the reader to wrap
+     * @return the metered reader, never returns {@code null}
+     */
+    public Reader wrap(@NonNull final Reader reader) {
+        Objects.requireNonNull(reader);
+        return new MeteredStreams.MeteredReader(reader, this);
+    }
+
+    /**
+     * Wrap a writer.
+     * <p>
+     * Writers count characters instead of bytes.
+     * <p>
+     * Closing the returned writer will close the original writer.
+     *
+     * @param writer
+     *            the writer to wrap
+     * @return the metered writer, never returns {@code null}
+     */
+    public Writer wrap(@NonNull final Writer writer) {
+        Objects.requireNonNull(writer);
+        return new MeteredStreams.MeteredWriter(writer, this);
+    }
+
+    /**
+     * Wrap a readable channel.
+     * <p>
+     * Closing the returned channel will close the original channel.
+     *
+     * @param channel
+     *            the channel to wrap
+     * @return the metered channel, never returns {@code null}
+     */
+    public ReadableByteChannel wrap(@NonNull final ReadableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new MeteredStreams.MeteredReadableByteChannel<>(channel, this);
+    }
+
+    /**
+     * Wrap a writable channel.
+     * <p>
+     * Closing the returned channel will close the original channel.
+     *
+     * @param channel
+     *            the channel to wrap
+     * @return the metered channel, never returns {@code null}
+     */
+    public WritableByteChannel wrap(@NonNull final WritableByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new MeteredStreams.MeteredWritableByteChannel(channel, this);
+    }
+
+    /**
+     * Wrap a byte channel.
+     * <p>
+     * Closing the returned channel will close the original channel.
+     *
+     * @param channel
+     *            the channel to wrap
+     * @return the metered channel, never returns {@code null}
+     */
+    public ByteChannel wrap(@NonNull final ByteChannel channel) {
+        Objects.requireNonNull(channel);
+        return new MeteredStreams.MeteredByteChannel(channel, this);
+    }
+
+    /**
+     * Start an operation.
+     *
+     * @return the start timestamp, zero if the meter is not timed
+     */
+    long start() {
+        return this.timed ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a read operation.
+     *
+     * @param start
+     *            the value returned by {@link #start()}
+     * @param amount
+     *            the number of bytes read, may be negative at the end of the
+     *            stream
+     */
+    void read(final long start, final long amount) {
+        if (this.timed) {
+            this.readTime.add(System.nanoTime() - start);
+        }
+        this.readCount.increment();
+        if (amount > 0) {
+            this.bytesRead.add(amount);
+        }
+    }
+
+    /**
+     * Record a write operation.
+     *
+     * @param start
+     *            the value returned by {@link #start()}
+     * @param amount
+     *            the number of bytes written
+     */
+    void write(final long start, final long amount) {
+        if (this.timed) {
+            this.writeTime.add(System.nanoTime() - start);
+        }
+        this.writeCount.increment();
+        if (amount > 0) {
+            this.bytesWritten.add(amount);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Meter: timed %s, %s]", this.timed, getStatistics());
+    }
+}
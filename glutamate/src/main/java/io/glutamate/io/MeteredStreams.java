@@ -0,0 +1,398 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Stream and channel implementations for {@link Meter}.
+ * <p>
+ * All calls are forwarded to the wrapped instance, including the
+ * {@code close()} call. Each call which transfers data is recorded as one
+ * operation, no matter how it is implemented by the wrapped instance.
+ */
+final class MeteredStreams {
+
+    private MeteredStreams() {
+    }
+
+    static final class MeteredInputStream extends InputStream {
+
+        private final InputStream stream;
+        private final Meter meter;
+
+        MeteredInputStream(final InputStream stream, final Meter meter) {
+            this.stream = stream;
+            this.meter = meter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = this.meter.start();
+            final int result = this.stream.read();
+            this.meter.read(start, result < 0 ? 0 : 1);
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.stream.read(b);
+            this.meter.read(start, result);
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.stream.read(b, off, len);
+            this.meter.read(start, result);
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            return this.stream.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return this.stream.available();
+        }
+
+        @Override
+        public synchronized void mark(final int readlimit) {
+            this.stream.mark(readlimit);
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            this.stream.reset();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return this.stream.markSupported();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.stream.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[metering: %s]", super.toString(), this.stream);
+        }
+    }
+
+    static final class MeteredOutputStream extends OutputStream {
+
+        private final OutputStream stream;
+        private final Meter meter;
+
+        MeteredOutputStream(final OutputStream stream, final Meter meter) {
+            this.stream = stream;
+            this.meter = meter;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            final long start = this.meter.start();
+            this.stream.write(b);
+            this.meter.write(start, 1);
+        }
+
+        @Override
+        public void write(final byte[] b) throws IOException {
+            final long start = this.meter.start();
+            this.stream.write(b);
+            this.meter.write(start, b.length);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final long start = this.meter.start();
+            this.stream.write(b, off, len);
+            this.meter.write(start, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.stream.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[metering: %s]", super.toString(), this.stream);
+        }
+    }
+
+    static final class MeteredReader extends Reader {
+
+        private final Reader reader;
+        private final Meter meter;
+
+        MeteredReader(final Reader reader, final Meter meter) {
+            this.reader = reader;
+            this.meter = meter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = this.meter.start();
+            final int result = this.reader.read();
+            this.meter.read(start, result < 0 ? 0 : 1);
+            return result;
+        }
+
+        @Override
+        public int read(final char[] cbuf) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.reader.read(cbuf);
+            this.meter.read(start, result);
+            return result;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.reader.read(cbuf, off, len);
+            this.meter.read(start, result);
+            return result;
+        }
+
+        @Override
+        public int read(final CharBuffer target) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.reader.read(target);
+            this.meter.read(start, result);
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            return this.reader.skip(n);
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            return this.reader.ready();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return this.reader.markSupported();
+        }
+
+        @Override
+        public void mark(final int readAheadLimit) throws IOException {
+            this.reader.mark(readAheadLimit);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            this.reader.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.reader.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[metering: %s]", super.toString(), this.reader);
+        }
+    }
+
+    static final class MeteredWriter extends Writer {
+
+        private final Writer writer;
+        private final Meter meter;
+
+        MeteredWriter(final Writer writer, final Meter meter) {
+            this.writer = writer;
+            this.meter = meter;
+        }
+
+        @Override
+        public void write(final int c) throws IOException {
+            final long start = this.meter.start();
+            this.writer.write(c);
+            this.meter.write(start, 1);
+        }
+
+        @Override
+        public void write(final char[] cbuf) throws IOException {
+            final long start = this.meter.start();
+            this.writer.write(cbuf);
+            this.meter.write(start, cbuf.length);
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) throws IOException {
+            final long start = this.meter.start();
+            this.writer.write(cbuf, off, len);
+            this.meter.write(start, len);
+        }
+
+        @Override
+        public void write(final String str) throws IOException {
+            final long start = this.meter.start();
+            this.writer.write(str);
+            this.meter.write(start, str.length());
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) throws IOException {
+            final long start = this.meter.start();
+            this.writer.write(str, off, len);
+            this.meter.write(start, len);
+        }
+
+        @Override
+        public Writer append(final CharSequence csq) throws IOException {
+            final long start = this.meter.start();
+            this.writer.append(csq);
+            this.meter.write(start, String.valueOf(csq).length());
+            return this;
+        }
+
+        @Override
+        public Writer append(final CharSequence csq, final int start, final int end) throws IOException {
+            final long begin = this.meter.start();
+            this.writer.append(csq, start, end);
+            this.meter.write(begin, end - start);
+            return this;
+        }
+
+        @Override
+        public Writer append(final char c) throws IOException {
+            final long start = this.meter.start();
+            this.writer.append(c);
+            this.meter.write(start, 1);
+            return this;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[metering: %s]", super.toString(), this.writer);
+        }
+    }
+
+    static class MeteredReadableByteChannel<C extends ReadableByteChannel> implements ReadableByteChannel {
+
+        protected final C channel;
+        protected final Meter meter;
+
+        MeteredReadableByteChannel(final C channel, final Meter meter) {
+            this.channel = channel;
+            this.meter = meter;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.channel.read(dst);
+            this.meter.read(start, result);
+            return result;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[metering: %s]", super.toString(), this.channel);
+        }
+    }
+
+    static final class MeteredWritableByteChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+        private final Meter meter;
+
+        MeteredWritableByteChannel(final WritableByteChannel channel, final Meter meter) {
+            this.channel = channel;
+            this.meter = meter;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.channel.write(src);
+            this.meter.write(start, result);
+            return result;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[metering: %s]", super.toString(), this.channel);
+        }
+    }
+
+    static final class MeteredByteChannel extends MeteredReadableByteChannel<ByteChannel> implements ByteChannel {
+
+        MeteredByteChannel(final ByteChannel channel, final Meter meter) {
+            super(channel, meter);
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final long start = this.meter.start();
+            final int result = this.channel.write(src);
+            this.meter.write(start, result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.nio.channels.ByteChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * A byte channel supporting scattering reads and gathering writes.
+ * <p>
+ * This interface combines the NIO interfaces implemented by channels like
+ * {@link java.nio.channels.SocketChannel} or
+ * {@link java.nio.channels.DatagramChannel}, for which NIO doesn't provide a
+ * common interface.
+ */
+public interface ScatteringGatheringByteChannel extends ByteChannel, ScatteringByteChannel, GatheringByteChannel {
+}
@@ -0,0 +1,394 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.time;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * A hashed wheel timer.
+ * <p>
+ * This timer trades precision for efficiency. Tasks are sorted into a wheel of
+ * buckets, each bucket covering one tick. Scheduling and cancelling a task are
+ * {@code O(1)} operations, so this timer is well suited for a large number of
+ * timeouts, of which most never fire.
+ * <p>
+ * Tasks are executed on the single thread of the timer and so must not block.
+ * They may be executed up to one tick later than requested. When there are no
+ * pending tasks, the timer thread is parked and does not consume any CPU
+ * cycles.
+ */
+@NonNullByDefault
+public final class WheelTimer implements AutoCloseable {
+
+    /**
+     * A handle to a scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancel the task.
+         *
+         * @return {@code true} if the task got cancelled by this call,
+         *         {@code false} if the task was already cancelled or expired
+         */
+        public boolean cancel();
+
+        /**
+         * Check if the task was cancelled.
+         *
+         * @return {@code true} if the task was cancelled
+         */
+        public boolean isCancelled();
+
+        /**
+         * Check if the task expired, and so was executed.
+         *
+         * @return {@code true} if the task expired
+         */
+        public boolean isExpired();
+    }
+
+    private static final class Holder {
+        private static final WheelTimer INSTANCE = new WheelTimer(Duration.ofMillis(10), 512, true);
+    }
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final class Entry implements Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+
+        // not private, so that the field updater can access it
+        volatile int state;
+
+        private long remainingRounds;
+        private @Nullable Bucket bucket;
+        private @Nullable Entry next;
+        private @Nullable Entry prev;
+
+        private Entry(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, STATE_INIT, STATE_CANCELLED)) {
+                return false;
+            }
+            WheelTimer.this.pending.decrementAndGet();
+            WheelTimer.this.cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.state == STATE_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return this.state == STATE_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, STATE_INIT, STATE_EXPIRED)) {
+                return;
+            }
+            WheelTimer.this.pending.decrementAndGet();
+            try {
+                this.task.run();
+            } catch (final Throwable e) {
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class,
+            "state");
+
+    /**
+     * A bucket, only accessed by the timer thread.
+     */
+    private final class Bucket {
+
+        private @Nullable Entry head;
+        private @Nullable Entry tail;
+
+        private void add(final Entry entry) {
+            entry.bucket = this;
+            if (this.tail == null) {
+                this.head = this.tail = entry;
+            } else {
+                this.tail.next = entry;
+                entry.prev = this.tail;
+                this.tail = entry;
+            }
+        }
+
+        private void remove(final Entry entry) {
+            final Entry next = entry.next;
+            final Entry prev = entry.prev;
+
+            if (prev != null) {
+                prev.next = next;
+            } else {
+                this.head = next;
+            }
+
+            if (next != null) {
+                next.prev = prev;
+            } else {
+                this.tail = prev;
+            }
+
+            entry.next = null;
+            entry.prev = null;
+            entry.bucket = null;
+        }
+
+        private void expire(final long deadline) {
+            Entry entry = this.head;
+            while (entry != null) {
+                final Entry next = entry.next;
+                if (entry.state != STATE_INIT) {
+                    remove(entry);
+                } else if (entry.remainingRounds <= 0 && entry.deadline <= deadline) {
+                    remove(entry);
+                    entry.expire();
+                } else {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final boolean shared;
+
+    private final long startTime;
+    private final AtomicLong pending = new AtomicLong();
+    private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private long tick;
+
+    private WheelTimer(final Duration tickDuration, final int ticksPerWheel, final boolean shared) {
+
+        this.tickNanos = Math.max(1, Durations.toNanos(tickDuration.abs()));
+        this.shared = shared;
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+
+        this.startTime = System.nanoTime();
+
+        this.worker = new Thread(this::run, "glutamate-wheel-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Get the shared timer instance.
+     * <p>
+     * The shared instance has a tick duration of 10 milliseconds and cannot be
+     * closed.
+     *
+     * @return the shared instance, never returns {@code null}
+     */
+    public static WheelTimer shared() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Create a new timer instance.
+     * <p>
+     * Each timer instance uses its own thread, which gets stopped when the timer
+     * is closed.
+     *
+     * @param tickDuration
+     *            the duration of a single tick
+     * @param ticksPerWheel
+     *            the number of buckets of the wheel, will be rounded up to the
+     *            next power of two
+     * @return the new timer instance, never returns {@code null}
+     */
+    public static WheelTimer create(final Duration tickDuration, final int ticksPerWheel) {
+        Objects.requireNonNull(tickDuration);
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("'ticksPerWheel' must be between 1 and 2^30");
+        }
+        return new WheelTimer(tickDuration, ticksPerWheel, false);
+    }
+
+    /**
+     * Schedule a task for later execution.
+     *
+     * @param task
+     *            the task to execute
+     * @param delay
+     *            the delay after which the task should be executed, negative
+     *            delays are treated as zero
+     * @return the handle to the scheduled task, never returns {@code null}
+     * @throws IllegalStateException
+     *             if the timer is already closed
+     */
+    public Timeout schedule(final Runnable task, final Duration delay) {
+        Objects.requireNonNull(task);
+        Objects.requireNonNull(delay);
+
+        if (!this.running) {
+            throw new IllegalStateException("Timer is closed");
+        }
+
+        final long nanos = delay.isNegative() ? 0 : Durations.toNanos(delay);
+        final long now = System.nanoTime() - this.startTime;
+        final long deadline = nanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos;
+
+        final Entry entry = new Entry(task, deadline);
+
+        final long before = this.pending.getAndIncrement();
+        this.scheduled.add(entry);
+        if (before == 0) {
+            LockSupport.unpark(this.worker);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Get the number of tasks which are neither expired, nor cancelled.
+     *
+     * @return the number of pending tasks
+     */
+    public long getPendingCount() {
+        return this.pending.get();
+    }
+
+    /**
+     * Stop the timer.
+     * <p>
+     * Pending tasks will not get executed anymore.
+     *
+     * @throws IllegalStateException
+     *             when trying to close the shared instance
+     */
+    @Override
+    public void close() {
+        if (this.shared) {
+            throw new IllegalStateException("The shared timer cannot be closed");
+        }
+        this.running = false;
+        LockSupport.unpark(this.worker);
+    }
+
+    private void run() {
+        while (this.running) {
+
+            if (this.pending.get() <= 0) {
+                idle();
+                continue;
+            }
+
+            final long deadline = waitForNextTick();
+
+            processCancelled();
+            transferScheduled();
+
+            this.wheel[(int) (this.tick & this.mask)].expire(deadline);
+            this.tick++;
+        }
+    }
+
+    private void idle() {
+        processCancelled();
+        LockSupport.park(this);
+
+        // the wheel is empty, so we can skip all ticks which we slept through
+        this.tick = (System.nanoTime() - this.startTime) / this.tickNanos;
+    }
+
+    private long waitForNextTick() {
+        final long deadline = this.tickNanos * (this.tick + 1);
+
+        while (this.running) {
+            final long now = System.nanoTime() - this.startTime;
+            final long wait = deadline - now;
+            if (wait <= 0) {
+                return now;
+            }
+            LockSupport.parkNanos(this, wait);
+        }
+
+        return deadline;
+    }
+
+    private void processCancelled() {
+        Entry entry;
+        while ((entry = this.cancelled.poll()) != null) {
+            final Bucket bucket = entry.bucket;
+            if (bucket != null) {
+                bucket.remove(entry);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        // limit the number of transfers, to not starve the current tick
+        for (int i = 0; i < 100_000; i++) {
+            final Entry entry = this.scheduled.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.state != STATE_INIT) {
+                continue;
+            }
+
+            final long calculated = entry.deadline / this.tickNanos;
+            entry.remainingRounds = (calculated - this.tick) / this.wheel.length;
+
+            final long ticks = Math.max(calculated, this.tick);
+            this.wheel[(int) (ticks & this.mask)].add(entry);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[WheelTimer: tick %sns, wheel %s, pending %s]", this.tickNanos, this.wheel.length,
+                this.pending.get());
+    }
+}
@@ -0,0 +1,608 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.glutamate.time.Durations;
+
+/**
+ * A cache of asynchronously loaded values.
+ * <p>
+ * The cache stores the {@link CompletionStage}s of the loading operations, so
+ * concurrent requests for the same key share the same loading operation. Failed
+ * loads are removed from the cache.
+ * <p>
+ * The size of the cache is bounded using a segmented LRU policy. New entries
+ * enter a probationary segment, and get promoted to a protected segment when
+ * they are accessed again. Entries are evicted from the probationary segment
+ * first, so that entries which are only accessed once cannot flush frequently
+ * used entries out of the cache.
+ * <p>
+ * Entries may expire a fixed duration after they were written. Entries may also
+ * be refreshed a fixed duration after they were written, in which case the
+ * stale value will be served while the refresh is running in the background.
+ *
+ * @param <K>
+ *            the type of the key
+ * @param <V>
+ *            the type of the value
+ */
+@NonNullByDefault
+public final class AsyncLoadingCache<K, V> {
+
+    /**
+     * A builder for {@link AsyncLoadingCache} instances.
+     *
+     * @param <K>
+     *            the type of the key
+     * @param <V>
+     *            the type of the value
+     */
+    public static final class Builder<K, V> {
+
+        private final Function<? super K, ? extends CompletionStage<? extends V>> loader;
+        private long maximumSize = Long.MAX_VALUE;
+        private long expireAfterWrite;
+        private long refreshAfterWrite;
+
+        private Builder(final Function<? super K, ? extends CompletionStage<? extends V>> loader) {
+            this.loader = loader;
+        }
+
+        /**
+         * Set the maximum number of entries.
+         *
+         * @param maximumSize
+         *            the maximum number of entries, must be positive
+         * @return this builder
+         */
+        public Builder<K, V> maximumSize(final long maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("'maximumSize' must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Let entries expire a fixed duration after they were written.
+         *
+         * @param duration
+         *            the duration after which entries expire, zero disables
+         *            expiration
+         * @return this builder
+         */
+        public Builder<K, V> expireAfterWrite(final Duration duration) {
+            this.expireAfterWrite = Durations.toNanos(duration.abs());
+            return this;
+        }
+
+        /**
+         * Refresh entries a fixed duration after they were written.
+         * <p>
+         * Refreshing is triggered by the first request for an entry after this
+         * duration. The request, and all following requests until the refresh
+         * is complete, receive the stale value.
+         *
+         * @param duration
+         *            the duration after which entries get refreshed, zero disables
+         *            refreshing
+         * @return this builder
+         */
+        public Builder<K, V> refreshAfterWrite(final Duration duration) {
+            this.refreshAfterWrite = Durations.toNanos(duration.abs());
+            return this;
+        }
+
+        /**
+         * Build a new cache.
+         *
+         * @return the new cache, never returns {@code null}
+         */
+        public AsyncLoadingCache<K, V> build() {
+            return new AsyncLoadingCache<>(this);
+        }
+    }
+
+    /**
+     * A snapshot of the cache statistics.
+     */
+    public static final class Statistics {
+
+        private final long hitCount;
+        private final long missCount;
+        private final long loadSuccessCount;
+        private final long loadFailureCount;
+        private final long totalLoadTime;
+        private final long evictionCount;
+
+        private Statistics(final long hitCount, final long missCount, final long loadSuccessCount,
+                final long loadFailureCount, final long totalLoadTime, final long evictionCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadSuccessCount = loadSuccessCount;
+            this.loadFailureCount = loadFailureCount;
+            this.totalLoadTime = totalLoadTime;
+            this.evictionCount = evictionCount;
+        }
+
+        /**
+         * Get the number of requests served from the cache.
+         *
+         * @return the number of hits
+         */
+        public long getHitCount() {
+            return this.hitCount;
+        }
+
+        /**
+         * Get the number of requests which triggered loading a value.
+         *
+         * @return the number of misses
+         */
+        public long getMissCount() {
+            return this.missCount;
+        }
+
+        /**
+         * Get the ratio of requests which were served from the cache.
+         *
+         * @return the hit rate, {@code 1.0} if there were no requests at all
+         */
+        public double getHitRate() {
+            final long requests = this.hitCount + this.missCount;
+            return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+        }
+
+        /**
+         * Get the number of successful loads, including refreshes.
+         *
+         * @return the number of successful loads
+         */
+        public long getLoadSuccessCount() {
+            return this.loadSuccessCount;
+        }
+
+        /**
+         * Get the number of failed loads, including refreshes.
+         *
+         * @return the number of failed loads
+         */
+        public long getLoadFailureCount() {
+            return this.loadFailureCount;
+        }
+
+        /**
+         * Get the total time spent loading values, including refreshes.
+         *
+         * @return the total loading time
+         */
+        public Duration getTotalLoadTime() {
+            return Duration.ofNanos(this.totalLoadTime);
+        }
+
+        /**
+         * Get the average time spent loading a value.
+         *
+         * @return the average load time, zero if nothing was loaded
+         */
+        public Duration getAverageLoadTime() {
+            final long loads = this.loadSuccessCount + this.loadFailureCount;
+            return loads == 0 ? Duration.ZERO : Duration.ofNanos(this.totalLoadTime / loads);
+        }
+
+        /**
+         * Get the number of entries evicted due to the size limit.
+         *
+         * @return the number of evictions
+         */
+        public long getEvictionCount() {
+            return this.evictionCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "[Statistics: hits %s, misses %s, load success %s, load failure %s, load time %s, evictions %s]",
+                    this.hitCount, this.missCount, this.loadSuccessCount, this.loadFailureCount,
+                    getTotalLoadTime(), this.evictionCount);
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+
+        private volatile CompletableFuture<V> future;
+        private volatile long writeTime;
+        private volatile boolean removed;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        // guarded by the policy lock
+
+        private @Nullable Node<K, V> prev;
+        private @Nullable Node<K, V> next;
+        private boolean linked;
+        private boolean protectedSegment;
+
+        private Node(final K key, final CompletableFuture<V> future, final long writeTime) {
+            this.key = key;
+            this.future = future;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * A doubly linked list, with the most recently used entry at the head.
+     */
+    private static final class Segment<K, V> {
+        private @Nullable Node<K, V> head;
+        private @Nullable Node<K, V> tail;
+        private long size;
+
+        private void addFirst(final Node<K, V> node) {
+            node.prev = null;
+            node.next = this.head;
+            if (this.head != null) {
+                this.head.prev = node;
+            } else {
+                this.tail = node;
+            }
+            this.head = node;
+            this.size++;
+        }
+
+        private void remove(final Node<K, V> node) {
+            final Node<K, V> prev = node.prev;
+            final Node<K, V> next = node.next;
+
+            if (prev != null) {
+                prev.next = next;
+            } else {
+                this.head = next;
+            }
+            if (next != null) {
+                next.prev = prev;
+            } else {
+                this.tail = prev;
+            }
+
+            node.prev = null;
+            node.next = null;
+            this.size--;
+        }
+    }
+
+    private final Function<? super K, ? extends CompletionStage<? extends V>> loader;
+    private final long maximumSize;
+    private final long maximumProtectedSize;
+    private final long expireAfterWrite;
+    private final long refreshAfterWrite;
+
+    private final ConcurrentMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Segment<K, V> probation = new Segment<>();
+    private final Segment<K, V> protection = new Segment<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private AsyncLoadingCache(final Builder<K, V> builder) {
+        this.loader = builder.loader;
+        this.maximumSize = builder.maximumSize;
+        this.maximumProtectedSize = Math.max(1, (long) (builder.maximumSize * 0.8));
+        this.expireAfterWrite = builder.expireAfterWrite;
+        this.refreshAfterWrite = builder.refreshAfterWrite;
+    }
+
+    /**
+     * Create a new builder.
+     *
+     * @param loader
+     *            the function loading values
+     * @param <K>
+     *            the type of the key
+     * @param <V>
+     *            the type of the value
+     * @return a new builder, never returns {@code null}
+     */
+    public static <K, V> Builder<K, V> builder(
+            final Function<? super K, ? extends CompletionStage<? extends V>> loader) {
+        Objects.requireNonNull(loader);
+        return new Builder<>(loader);
+    }
+
+    /**
+     * Get the value for a key, loading it if necessary.
+     *
+     * @param key
+     *            the key
+     * @return the stage of the value, never returns {@code null}
+     */
+    public CompletionStage<V> get(final K key) {
+        Objects.requireNonNull(key);
+
+        final long now = System.nanoTime();
+
+        final Node<K, V> node = this.map.get(key);
+        if (node != null) {
+            if (!isExpired(node, now)) {
+                return hit(node, now);
+            }
+            remove(node);
+        }
+
+        final Node<K, V> created = new Node<>(key, new CompletableFuture<>(), now);
+
+        final Node<K, V> existing = this.map.putIfAbsent(key, created);
+        if (existing != null) {
+            return hit(existing, now);
+        }
+
+        this.misses.increment();
+        add(created);
+        load(created);
+
+        return created.future;
+    }
+
+    /**
+     * Get the value for a key, if it is present in the cache.
+     * <p>
+     * This will not trigger loading or refreshing the value, and does not count
+     * as hit or miss.
+     *
+     * @param key
+     *            the key
+     * @return the stage of the value, or {@code null} if the cache has no entry
+     *         for this key
+     */
+    public @Nullable CompletionStage<V> getIfPresent(final K key) {
+        Objects.requireNonNull(key);
+
+        final Node<K, V> node = this.map.get(key);
+        if (node == null || isExpired(node, System.nanoTime())) {
+            return null;
+        }
+        return node.future;
+    }
+
+    /**
+     * Put a value into the cache, replacing any existing entry.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    public void put(final K key, final V value) {
+        Objects.requireNonNull(key);
+
+        final Node<K, V> node = new Node<>(key, Futures.succeeded(value), System.nanoTime());
+        final Node<K, V> previous = this.map.put(key, node);
+        if (previous != null) {
+            unlink(previous);
+        }
+        add(node);
+    }
+
+    /**
+     * Remove the entry of a key.
+     *
+     * @param key
+     *            the key
+     */
+    public void invalidate(final K key) {
+        Objects.requireNonNull(key);
+
+        final Node<K, V> node = this.map.remove(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries, including entries which are still loading
+     */
+    public long size() {
+        return this.map.size();
+    }
+
+    /**
+     * Get a snapshot of the current statistics.
+     *
+     * @return the statistics, never returns {@code null}
+     */
+    public Statistics getStatistics() {
+        return new Statistics(this.hits.sum(), this.misses.sum(), this.loadSuccesses.sum(), this.loadFailures.sum(),
+                this.loadTime.sum(), this.evictions.sum());
+    }
+
+    private boolean isExpired(final Node<K, V> node, final long now) {
+        return this.expireAfterWrite > 0
+                && node.future.isDone()
+                && now - node.writeTime >= this.expireAfterWrite;
+    }
+
+    private CompletionStage<V> hit(final Node<K, V> node, final long now) {
+        this.hits.increment();
+        recordAccess(node);
+
+        final CompletableFuture<V> future = node.future;
+
+        if (this.refreshAfterWrite > 0
+                && now - node.writeTime >= this.refreshAfterWrite
+                && future.isDone() && !future.isCompletedExceptionally()
+                && node.refreshing.compareAndSet(false, true)) {
+            refresh(node);
+        }
+
+        return future;
+    }
+
+    private void load(final Node<K, V> node) {
+        loadStage(node.key).whenComplete((value, error) -> {
+            if (error != null) {
+                remove(node);
+                node.future.completeExceptionally(Futures.unwrap(error));
+            } else {
+                node.writeTime = System.nanoTime();
+                node.future.complete(value);
+            }
+        });
+    }
+
+    private void refresh(final Node<K, V> node) {
+        loadStage(node.key).whenComplete((value, error) -> {
+            if (error == null && !node.removed) {
+                // keep serving the stale value on failure
+                node.future = Futures.<V> succeeded(value);
+                node.writeTime = System.nanoTime();
+            }
+            node.refreshing.set(false);
+        });
+    }
+
+    private CompletionStage<? extends V> loadStage(final K key) {
+        final long start = System.nanoTime();
+
+        @Nullable
+        CompletionStage<? extends V> stage;
+        try {
+            stage = this.loader.apply(key);
+        } catch (final Throwable e) {
+            // the load must complete, otherwise the node would never be removed
+            stage = Futures.failed(e);
+        }
+
+        if (stage == null) {
+            stage = Futures.failed(new NullPointerException("Loader returned a null stage"));
+        }
+
+        return stage.whenComplete((value, error) -> {
+            this.loadTime.add(System.nanoTime() - start);
+            if (error != null) {
+                this.loadFailures.increment();
+            } else {
+                this.loadSuccesses.increment();
+            }
+        });
+    }
+
+    private void remove(final Node<K, V> node) {
+        if (this.map.remove(node.key, node)) {
+            unlink(node);
+        }
+    }
+
+    private void add(final Node<K, V> node) {
+        this.lock.lock();
+        try {
+            if (node.removed) {
+                return;
+            }
+            node.linked = true;
+            this.probation.addFirst(node);
+            evict();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void unlink(final Node<K, V> node) {
+        node.removed = true;
+
+        this.lock.lock();
+        try {
+            if (node.linked) {
+                segmentOf(node).remove(node);
+                node.linked = false;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void recordAccess(final Node<K, V> node) {
+        // recording an access is best effort, skip it when contended
+        if (!this.lock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (!node.linked) {
+                return;
+            }
+
+            if (node.protectedSegment) {
+                this.protection.remove(node);
+                this.protection.addFirst(node);
+                return;
+            }
+
+            this.probation.remove(node);
+            node.protectedSegment = true;
+            this.protection.addFirst(node);
+
+            while (this.protection.size > this.maximumProtectedSize) {
+                final Node<K, V> demoted = this.protection.tail;
+                this.protection.remove(demoted);
+                demoted.protectedSegment = false;
+                this.probation.addFirst(demoted);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void evict() {
+        while (this.probation.size + this.protection.size > this.maximumSize) {
+            final Node<K, V> victim = this.probation.tail != null ? this.probation.tail : this.protection.tail;
+
+            segmentOf(victim).remove(victim);
+            victim.linked = false;
+            victim.removed = true;
+
+            if (this.map.remove(victim.key, victim)) {
+                this.evictions.increment();
+            }
+        }
+    }
+
+    private Segment<K, V> segmentOf(final Node<K, V> node) {
+        return node.protectedSegment ? this.protection : this.probation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[AsyncLoadingCache: size %s, maximumSize %s, %s]", size(), this.maximumSize,
+                getStatistics());
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import io.glutamate.util.concurrent.AsyncSemaphore.Permit;
+
+/**
+ * A non-blocking mutual exclusion lock.
+ * <p>
+ * The lock is held until the acquired permit gets closed. The lock is not
+ * re-entrant, as it is not bound to a thread.
+ *
+ * <pre>
+ * lock.acquire().thenCompose(permit -&gt; {
+ *     return doWork().whenComplete((result, error) -&gt; permit.close());
+ * });
+ * </pre>
+ *
+ * @see AsyncSemaphore
+ */
+@NonNullByDefault
+public final class AsyncLock {
+
+    private final AsyncSemaphore semaphore;
+
+    private AsyncLock(final boolean fair) {
+        this.semaphore = AsyncSemaphore.create(1, fair);
+    }
+
+    /**
+     * Create a new, fair lock.
+     *
+     * @return the new lock, never returns {@code null}
+     */
+    public static AsyncLock create() {
+        return new AsyncLock(true);
+    }
+
+    /**
+     * Create a new lock.
+     *
+     * @param fair
+     *            whether the lock should be fair
+     * @return the new lock, never returns {@code null}
+     * @see AsyncSemaphore#create(int, boolean)
+     */
+    public static AsyncLock create(final boolean fair) {
+        return new AsyncLock(fair);
+    }
+
+    /**
+     * Acquire the lock.
+     *
+     * @return the stage completing with the permit holding the lock
+     */
+    public CompletionStage<Permit> acquire() {
+        return this.semaphore.acquire();
+    }
+
+    /**
+     * Acquire the lock, waiting no longer than the provided timeout.
+     *
+     * @param timeout
+     *            the maximum time to wait for the lock
+     * @return the stage completing with the permit holding the lock
+     * @see AsyncSemaphore#acquire(Duration)
+     */
+    public CompletionStage<Permit> acquire(final Duration timeout) {
+        return this.semaphore.acquire(timeout);
+    }
+
+    /**
+     * Try to acquire the lock, without waiting.
+     *
+     * @return the permit holding the lock, or {@link Optional#empty()} if the
+     *         lock is currently held
+     */
+    public Optional<Permit> tryAcquire() {
+        return this.semaphore.tryAcquire();
+    }
+
+    /**
+     * Check if the lock is currently held.
+     *
+     * @return {@code true} if the lock is held
+     */
+    public boolean isLocked() {
+        return this.semaphore.getAvailablePermits() == 0;
+    }
+
+    /**
+     * Get the number of waiters.
+     *
+     * @return the number of queued waiters
+     */
+    public int getWaitingCount() {
+        return this.semaphore.getWaitingCount();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[AsyncLock: locked %s, waiting %s]", isLocked(), getWaitingCount());
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import io.glutamate.time.WheelTimer;
+
+/**
+ * A non-blocking semaphore.
+ * <p>
+ * Acquiring a permit does not block the calling thread, but returns a stage
+ * which completes once a permit is available. Waiters are queued in FIFO order,
+ * using a lock-free queue.
+ * <p>
+ * A permit is released by closing it, which allows using it in a
+ * try-with-resources block or with a {@link io.glutamate.lang.Resource}.
+ * Closing a permit more than once has no effect.
+ * <p>
+ * Cancelling the stage returned by {@link #acquire()}, before it completed,
+ * removes the waiter from the queue.
+ * <p>
+ * <strong>Note:</strong> Stages of waiters are completed on the thread which
+ * releases the permit.
+ */
+@NonNullByDefault
+public final class AsyncSemaphore {
+
+    /**
+     * A permit, acquired from a semaphore.
+     */
+    public interface Permit extends AutoCloseable {
+        /**
+         * Release the permit.
+         */
+        @Override
+        public void close();
+    }
+
+    private final class PermitImpl extends AtomicBoolean implements Permit {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void close() {
+            if (compareAndSet(false, true)) {
+                release();
+            }
+        }
+    }
+
+    private final int maxPermits;
+    private final boolean fair;
+
+    private final AtomicInteger permits;
+    private final Queue<CompletableFuture<Permit>> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    private AsyncSemaphore(final int permits, final boolean fair) {
+        this.maxPermits = permits;
+        this.fair = fair;
+        this.permits = new AtomicInteger(permits);
+    }
+
+    /**
+     * Create a new, fair semaphore.
+     *
+     * @param permits
+     *            the number of permits, must be positive
+     * @return the new semaphore, never returns {@code null}
+     */
+    public static AsyncSemaphore create(final int permits) {
+        return create(permits, true);
+    }
+
+    /**
+     * Create a new semaphore.
+     * <p>
+     * A fair semaphore grants permits strictly in the order they were requested.
+     * A non-fair semaphore allows new requests to take an available permit,
+     * even if there are queued waiters. This improves throughput, but may delay
+     * waiters.
+     *
+     * @param permits
+     *            the number of permits, must be positive
+     * @param fair
+     *            whether the semaphore should be fair
+     * @return the new semaphore, never returns {@code null}
+     */
+    public static AsyncSemaphore create(final int permits, final boolean fair) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("'permits' must be positive");
+        }
+        return new AsyncSemaphore(permits, fair);
+    }
+
+    /**
+     * Acquire a permit.
+     *
+     * @return the stage completing with the permit, never returns {@code null}
+     */
+    public CompletionStage<Permit> acquire() {
+        return enqueue();
+    }
+
+    /**
+     * Acquire a permit, waiting no longer than the provided timeout.
+     * <p>
+     * If no permit could be acquired before the timeout expires, the returned
+     * stage fails with a {@link TimeoutException}.
+     *
+     * @param timeout
+     *            the maximum time to wait for a permit
+     * @return the stage completing with the permit, never returns {@code null}
+     */
+    public CompletionStage<Permit> acquire(final Duration timeout) {
+        Objects.requireNonNull(timeout);
+
+        final CompletableFuture<Permit> result = enqueue();
+        if (result.isDone()) {
+            return result;
+        }
+
+        final WheelTimer.Timeout task = WheelTimer.shared().schedule(() -> {
+            // only count the timeout if it won the race against a granted permit
+            if (result.completeExceptionally(
+                    new TimeoutException(String.format("Failed to acquire permit within %s", timeout)))) {
+                this.timedOut.increment();
+            }
+        }, timeout);
+        result.whenComplete((permit, error) -> task.cancel());
+
+        return result;
+    }
+
+    /**
+     * Try to acquire a permit, without waiting.
+     * <p>
+     * On a fair semaphore, this fails if there are queued waiters, even when a
+     * permit is available.
+     *
+     * @return the permit, or {@link Optional#empty()} if no permit is available
+     */
+    public Optional<Permit> tryAcquire() {
+        if (this.fair && this.waiting.get() > 0) {
+            return Optional.empty();
+        }
+        if (!takePermit()) {
+            return Optional.empty();
+        }
+        this.acquired.increment();
+        return Optional.of(new PermitImpl());
+    }
+
+    private CompletableFuture<Permit> enqueue() {
+        final Optional<Permit> permit = tryAcquire();
+        if (permit.isPresent()) {
+            return CompletableFuture.completedFuture(permit.get());
+        }
+
+        final CompletableFuture<Permit> waiter = new CompletableFuture<>();
+
+        this.waiting.incrementAndGet();
+        this.waiters.add(waiter);
+
+        waiter.whenComplete((p, error) -> {
+            if (error != null && this.waiters.remove(waiter)) {
+                // cancelled or timed out while waiting
+                this.waiting.decrementAndGet();
+            }
+        });
+
+        drain();
+
+        return waiter;
+    }
+
+    private boolean takePermit() {
+        while (true) {
+            final int current = this.permits.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (this.permits.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        this.permits.incrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            while (!this.waiters.isEmpty() && takePermit()) {
+                final CompletableFuture<Permit> waiter = this.waiters.poll();
+                if (waiter == null) {
+                    this.permits.incrementAndGet();
+                    break;
+                }
+
+                this.waiting.decrementAndGet();
+
+                if (waiter.complete(new PermitImpl())) {
+                    this.acquired.increment();
+                } else {
+                    // waiter gave up in the meantime
+                    this.permits.incrementAndGet();
+                }
+            }
+
+            missed = this.wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Get the number of permits this semaphore was created with.
+     *
+     * @return the maximum number of permits
+     */
+    public int getMaxPermits() {
+        return this.maxPermits;
+    }
+
+    /**
+     * Get the number of currently available permits.
+     *
+     * @return the number of available permits
+     */
+    public int getAvailablePermits() {
+        return Math.max(0, this.permits.get());
+    }
+
+    /**
+     * Get the number of waiters.
+     *
+     * @return the number of queued waiters
+     */
+    public int getWaitingCount() {
+        return Math.max(0, this.waiting.get());
+    }
+
+    /**
+     * Get the number of permits which got granted so far.
+     *
+     * @return the number of granted permits
+     */
+    public long getAcquiredCount() {
+        return this.acquired.sum();
+    }
+
+    /**
+     * Get the number of requests which timed out while waiting for a permit.
+     *
+     * @return the number of timed out requests
+     */
+    public long getTimedOutCount() {
+        return this.timedOut.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[AsyncSemaphore: permits %s/%s, waiting %s, fair %s]", getAvailablePermits(),
+                this.maxPermits, getWaitingCount(), this.fair);
+    }
+}
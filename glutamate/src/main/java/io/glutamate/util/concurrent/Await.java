@@ -10,13 +10,23 @@
  *******************************************************************************/
 package io.glutamate.util.concurrent;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -28,9 +38,255 @@ import io.glutamate.time.Durations;
  */
 @NonNullByDefault
 public final class Await {
+
+    /**
+     * A strategy for waiting on a result.
+     * <p>
+     * The default strategy simply blocks the calling thread, until the result is
+     * available. For hand-offs which complete within microseconds, it may be
+     * beneficial to burn some CPU cycles first, avoiding the cost of parking and
+     * un-parking the calling thread.
+     */
+    public static final class Strategy {
+
+        private static final Strategy BLOCKING = new Strategy(0, 0);
+
+        private static final @Nullable MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+
+        private final long spinNanos;
+        private final long yieldNanos;
+
+        private Strategy(final long spinNanos, final long yieldNanos) {
+            this.spinNanos = spinNanos;
+            this.yieldNanos = yieldNanos;
+        }
+
+        /**
+         * Get a strategy which directly blocks the calling thread.
+         *
+         * @return the blocking strategy, never returns {@code null}
+         */
+        public static Strategy blocking() {
+            return BLOCKING;
+        }
+
+        /**
+         * Get a strategy which spins, then yields and then blocks.
+         * <p>
+         * The calling thread will first busy-spin for the provided spin
+         * duration. Afterwards it will yield the processor, re-checking the result
+         * in between, for the provided yield duration. Only then will the calling
+         * thread block. The overall timeout of the await operation still applies.
+         *
+         * @param spin
+         *            the duration to spin
+         * @param yield
+         *            the duration to yield, after spinning
+         * @return a new strategy, never returns {@code null}
+         */
+        public static Strategy spinning(final Duration spin, final Duration yield) {
+            Objects.requireNonNull(spin);
+            Objects.requireNonNull(yield);
+
+            final long spinNanos = Durations.toNanos(spin.abs());
+            final long yieldNanos = Durations.toNanos(yield.abs());
+
+            if (spinNanos == 0 && yieldNanos == 0) {
+                return BLOCKING;
+            }
+
+            return new Strategy(spinNanos, yieldNanos);
+        }
+
+        /**
+         * Get a strategy which spins and then blocks.
+         *
+         * @param spin
+         *            the duration to spin
+         * @return a new strategy, never returns {@code null}
+         * @see #spinning(Duration, Duration)
+         */
+        public static Strategy spinning(final Duration spin) {
+            return spinning(spin, Duration.ZERO);
+        }
+
+        private boolean isBlocking() {
+            return this.spinNanos == 0 && this.yieldNanos == 0;
+        }
+
+        /**
+         * Spin and yield until the future is done.
+         *
+         * @param future
+         *            the future to check
+         * @param nanos
+         *            the maximum time to spend, zero or negative for no limit
+         * @return {@code true} if the future is done, {@code false} if the spinning
+         *         phase ended
+         */
+        private boolean spin(final CompletableFuture<?> future, final long nanos) {
+
+            final long spinEnd = limit(this.spinNanos, nanos);
+            final long yieldEnd = limit(this.spinNanos + this.yieldNanos, nanos);
+
+            final long start = System.nanoTime();
+
+            while (!future.isDone()) {
+                final long elapsed = System.nanoTime() - start;
+                if (elapsed < spinEnd) {
+                    onSpinWait();
+                } else if (elapsed < yieldEnd) {
+                    Thread.yield();
+                } else {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static long limit(final long value, final long nanos) {
+            if (value < 0) {
+                // overflow
+                return nanos > 0 ? nanos : Long.MAX_VALUE;
+            }
+            return nanos > 0 ? Math.min(value, nanos) : value;
+        }
+
+        private static void onSpinWait() {
+            final MethodHandle onSpinWait = ON_SPIN_WAIT;
+            if (onSpinWait != null) {
+                try {
+                    onSpinWait.invokeExact();
+                } catch (final Throwable e) {
+                    // ignore, simply spin
+                }
+            }
+        }
+
+        private static @Nullable MethodHandle findOnSpinWait() {
+            // Thread.onSpinWait is only available on Java 9+
+            try {
+                return MethodHandles.publicLookup().findStatic(Thread.class, "onSpinWait",
+                        MethodType.methodType(void.class));
+            } catch (final NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (isBlocking()) {
+                return "[Strategy: blocking]";
+            }
+            return String.format("[Strategy: spin %sns, yield %sns]", this.spinNanos, this.yieldNanos);
+        }
+    }
+
+    private static final LongAdder MANAGED_BLOCKS = new LongAdder();
+
+    private static volatile Strategy defaultStrategy = Strategy.blocking();
+
     private Await() {
     }
 
+    /**
+     * Set the strategy which is used when no strategy is provided explicitly.
+     *
+     * @param strategy
+     *            the new default strategy
+     */
+    public static void setDefaultStrategy(final Strategy strategy) {
+        Objects.requireNonNull(strategy);
+        defaultStrategy = strategy;
+    }
+
+    /**
+     * Get the strategy which is used when no strategy is provided explicitly.
+     *
+     * @return the current default strategy, never returns {@code null}
+     */
+    public static Strategy getDefaultStrategy() {
+        return defaultStrategy;
+    }
+
+    /**
+     * Get the number of times a call had to block through
+     * {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}.
+     * <p>
+     * When a caller is running in a {@link ForkJoinWorkerThread}, the await
+     * methods will block in a way which allows the pool to add compensation
+     * threads. This counter records how often this happened. A constantly
+     * increasing number may indicate that blocking code is executed in the common
+     * pool.
+     *
+     * @return the number of managed blocking operations
+     */
+    public static long getManagedBlockCount() {
+        return MANAGED_BLOCKS.sum();
+    }
+
+    /**
+     * Get the result of a future, blocking if necessary.
+     *
+     * @param future
+     *            the future to wait for
+     * @param time
+     *            the time to wait, zero or negative for waiting forever
+     * @param unit
+     *            the unit of {@code time}
+     * @param strategy
+     *            the strategy to use for waiting
+     */
+    private static <T> T get(final CompletableFuture<T> future, final long time, final TimeUnit unit,
+            final Strategy strategy)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        if (future.isDone()) {
+            return future.get();
+        }
+
+        if (strategy.isBlocking()) {
+            return block(future, time, unit);
+        }
+
+        final long nanos = time > 0 ? unit.toNanos(time) : 0;
+        final long start = System.nanoTime();
+
+        if (strategy.spin(future, nanos)) {
+            return future.get();
+        }
+
+        if (nanos <= 0) {
+            return block(future, 0, TimeUnit.NANOSECONDS);
+        }
+
+        final long remaining = nanos - (System.nanoTime() - start);
+        if (remaining <= 0) {
+            throw new TimeoutException();
+        }
+
+        return block(future, remaining, TimeUnit.NANOSECONDS);
+    }
+
+    private static <T> T block(final CompletableFuture<T> future, final long time, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+            /*
+             * CompletableFuture already waits through ForkJoinPool.managedBlock when
+             * called from a pool thread, so we only need to record it.
+             */
+            MANAGED_BLOCKS.increment();
+        }
+
+        if (time > 0) {
+            return future.get(time, unit);
+        } else {
+            return future.get();
+        }
+    }
+
     /**
      * Await the completion of a completion stage.
      * <p>
@@ -55,11 +311,7 @@ public final class Await {
 
         try {
 
-            if (milliseconds > 0) {
-                return future.get(milliseconds, TimeUnit.MILLISECONDS);
-            } else {
-                return future.get();
-            }
+            return get(future, milliseconds, TimeUnit.MILLISECONDS, defaultStrategy);
 
         } catch (final InterruptedException | ExecutionException | TimeoutException e) {
             throw new RuntimeException(e);
@@ -85,15 +337,42 @@ public final class Await {
      * @return the result of the completion stage
      */
     public static <T> T await(final CompletionStage<T> stage, @Nullable final Duration duration) {
+        return await(stage, duration, defaultStrategy);
+    }
+
+    /**
+     * Await the completion of a completion stage, using the provided strategy.
+     * <p>
+     * Any error which gets thrown by the stage or the waiting process (even the
+     * timeout) will be wrapped in a {@link RuntimeException}. If the cause of the
+     * failure is important it is present in the cause of the RuntimeException.
+     *
+     * @param stage
+     *            the stage to wait for
+     * @param duration
+     *            The duration to wait for. If the value is {@code null} or zero, it
+     *            will wait forever. The method will use the absolute value of the
+     *            duration, so negative durations will be converted into positive
+     *            durations.
+     * @param strategy
+     *            the strategy to use for waiting
+     * @param <T>
+     *            the type of the result
+     * @return the result of the completion stage
+     */
+    public static <T> T await(final CompletionStage<T> stage, @Nullable final Duration duration,
+            final Strategy strategy) {
+
+        Objects.requireNonNull(strategy);
 
         final CompletableFuture<T> future = stage.toCompletableFuture();
 
         try {
 
             if (duration != null && !duration.isZero()) {
-                return Durations.map(duration.abs(), future::get);
+                return Durations.map(duration.abs(), (time, unit) -> get(future, time, unit, strategy));
             } else {
-                return future.get();
+                return get(future, 0, TimeUnit.MILLISECONDS, strategy);
             }
 
         } catch (final RuntimeException e) {
@@ -103,4 +382,137 @@ public final class Await {
         }
     }
 
+    /**
+     * Await the completion of a number of completion stages.
+     * <p>
+     * This is equivalent to calling {@link #awaitAll(Collection, Duration, boolean)}
+     * without cancelling the remaining stages on failure.
+     *
+     * @param stages
+     *            the stages to wait for
+     * @param duration
+     *            The duration to wait for, for all stages together. If the value
+     *            is {@code null} or zero, it will wait forever.
+     * @param <T>
+     *            the type of the result
+     * @return the results of the completion stages, in the order of the provided
+     *         collection
+     */
+    public static <T> List<T> awaitAll(final Collection<? extends CompletionStage<? extends T>> stages,
+            @Nullable final Duration duration) {
+        return awaitAll(stages, duration, false);
+    }
+
+    /**
+     * Await the completion of a number of completion stages.
+     * <p>
+     * All stages share the same deadline, which starts when this method is
+     * called. So the method will not wait longer than the provided duration in
+     * total, no matter how many stages are provided.
+     * <p>
+     * The method fails fast, returning as soon as the first stage fails. Errors
+     * are reported the same way as {@link #await(CompletionStage, Duration)} does.
+     *
+     * @param stages
+     *            the stages to wait for
+     * @param duration
+     *            The duration to wait for, for all stages together. If the value
+     *            is {@code null} or zero, it will wait forever. The method will use
+     *            the absolute value of the duration.
+     * @param cancelRemaining
+     *            if {@code true}, all stages which are not yet completed will be
+     *            cancelled in case of a failure or timeout
+     * @param <T>
+     *            the type of the result
+     * @return the results of the completion stages, in the order of the provided
+     *         collection
+     */
+    public static <T> List<T> awaitAll(final Collection<? extends CompletionStage<? extends T>> stages,
+            @Nullable final Duration duration, final boolean cancelRemaining) {
+
+        Objects.requireNonNull(stages);
+
+        final List<CompletableFuture<? extends T>> futures = new ArrayList<>(stages.size());
+        for (final CompletionStage<? extends T> stage : stages) {
+            futures.add(stage.toCompletableFuture());
+        }
+
+        try {
+            await(allOrFirstFailure(futures), duration);
+        } catch (final RuntimeException e) {
+            if (cancelRemaining) {
+                futures.forEach(future -> future.cancel(false));
+            }
+            throw e;
+        }
+
+        final List<T> result = new ArrayList<>(futures.size());
+        for (final CompletableFuture<? extends T> future : futures) {
+            result.add(future.join());
+        }
+        return result;
+    }
+
+    /**
+     * Await the first successful completion of a number of completion stages.
+     * <p>
+     * All other stages will be closed, in case they are
+     * {@link CloseableCompletionStage}s, or cancelled otherwise. This also
+     * happens if waiting for the result times out. Errors are reported the same
+     * way as {@link #await(CompletionStage, Duration)} does. If all stages fail,
+     * the cause will be the first error, having all other errors added as
+     * suppressed exceptions.
+     *
+     * @param stages
+     *            the stages to wait for
+     * @param duration
+     *            The duration to wait for. If the value is {@code null} or zero, it
+     *            will wait forever. The method will use the absolute value of the
+     *            duration.
+     * @param <T>
+     *            the type of the result
+     * @return the first successful result
+     * @see Futures#firstSuccessful(Collection)
+     */
+    public static <T> T awaitAny(final Collection<? extends CompletionStage<? extends T>> stages,
+            @Nullable final Duration duration) {
+
+        final CompletableFuture<T> result = Futures.firstSuccessful(stages);
+
+        try {
+            return await(result, duration);
+        } catch (final RuntimeException e) {
+            result.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Create a future which completes when all futures have completed
+     * successfully, or fails with the first failure.
+     */
+    private static CompletableFuture<Void> allOrFirstFailure(final List<? extends CompletableFuture<?>> futures) {
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        if (futures.isEmpty()) {
+            result.complete(null);
+            return result;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(futures.size());
+
+        for (final CompletableFuture<?> future : futures) {
+            future.whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else if (remaining.decrementAndGet() == 0) {
+                    result.complete(null);
+                }
+            });
+        }
+
+        return result;
+    }
+
 }
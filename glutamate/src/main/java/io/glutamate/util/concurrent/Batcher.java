@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.glutamate.time.WheelTimer;
+
+/**
+ * Coalesce individual requests into batches.
+ * <p>
+ * Each call to {@link #load(Object)} requests a single item. Requested keys are
+ * collected until either the maximum batch size is reached, or the maximum
+ * delay, since the first key of the batch was requested, has passed. Then the
+ * batch function is called once, with all collected keys. Its result is fanned
+ * out to the individual requests.
+ * <p>
+ * Requesting a key which is already part of the pending batch will return the
+ * same stage as the previous request.
+ * <p>
+ * A batch reaching the maximum size is dispatched on the thread calling
+ * {@link #load(Object)}, a batch reaching the maximum delay is dispatched on the
+ * thread of the {@link WheelTimer#shared() shared timer}. So the batch function
+ * should not block, but only initiate the operation.
+ *
+ * @param <K>
+ *            the type of the key
+ * @param <V>
+ *            the type of the value
+ */
+@NonNullByDefault
+public final class Batcher<K, V> {
+
+    private static final int HISTOGRAM_SIZE = 32;
+
+    private final Function<? super List<K>, ? extends CompletionStage<? extends Map<K, ? extends V>>> batchFunction;
+    private final int maxBatchSize;
+    private final Duration maxDelay;
+
+    private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+    private WheelTimer.@Nullable Timeout timeout;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder keys = new LongAdder();
+    private final LongAdder[] histogram = new LongAdder[HISTOGRAM_SIZE];
+
+    private Batcher(
+            final Function<? super List<K>, ? extends CompletionStage<? extends Map<K, ? extends V>>> batchFunction,
+            final int maxBatchSize, final Duration maxDelay) {
+
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            this.histogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Create a new batcher.
+     *
+     * @param batchFunction
+     *            the function to call for loading a batch of keys, keys missing
+     *            in the result map will fail with a
+     *            {@link NoSuchElementException}
+     * @param maxBatchSize
+     *            the maximum number of keys in a single batch, must be positive
+     * @param maxDelay
+     *            the maximum time to wait for a batch to fill up
+     * @param <K>
+     *            the type of the key
+     * @param <V>
+     *            the type of the value
+     * @return the new instance, never returns {@code null}
+     */
+    public static <K, V> Batcher<K, V> of(
+            final Function<? super List<K>, ? extends CompletionStage<? extends Map<K, ? extends V>>> batchFunction,
+            final int maxBatchSize, final Duration maxDelay) {
+
+        Objects.requireNonNull(batchFunction);
+        Objects.requireNonNull(maxDelay);
+
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("'maxBatchSize' must be positive");
+        }
+
+        return new Batcher<>(batchFunction, maxBatchSize, maxDelay);
+    }
+
+    /**
+     * Request a single item.
+     *
+     * @param key
+     *            the key of the item
+     * @return the stage completing with the item
+     */
+    public CompletionStage<V> load(final K key) {
+        Objects.requireNonNull(key);
+
+        this.requests.increment();
+
+        final CompletableFuture<V> result;
+        Map<K, CompletableFuture<V>> batch = null;
+
+        synchronized (this) {
+            final CompletableFuture<V> existing = this.pending.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            result = new CompletableFuture<>();
+            this.pending.put(key, result);
+
+            if (this.pending.size() >= this.maxBatchSize) {
+                batch = takeBatch();
+            } else if (this.pending.size() == 1) {
+                final Map<K, CompletableFuture<V>> current = this.pending;
+                this.timeout = WheelTimer.shared().schedule(() -> flush(current), this.maxDelay);
+            }
+        }
+
+        if (batch != null) {
+            dispatch(batch);
+        }
+
+        return result;
+    }
+
+    /**
+     * Dispatch the currently pending batch right now.
+     */
+    public void flush() {
+        final Map<K, CompletableFuture<V>> batch;
+
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            batch = takeBatch();
+        }
+
+        dispatch(batch);
+    }
+
+    /**
+     * Dispatch the pending batch, if it still is the provided batch.
+     * <p>
+     * A timer may fire after its batch got dispatched by size, as cancelling
+     * races with the timer thread. It must not dispatch the next batch early.
+     */
+    private void flush(final Map<K, CompletableFuture<V>> expected) {
+        final Map<K, CompletableFuture<V>> batch;
+
+        synchronized (this) {
+            if (this.pending != expected || this.pending.isEmpty()) {
+                return;
+            }
+            batch = takeBatch();
+        }
+
+        dispatch(batch);
+    }
+
+    private Map<K, CompletableFuture<V>> takeBatch() {
+        final Map<K, CompletableFuture<V>> result = this.pending;
+        this.pending = new LinkedHashMap<>();
+
+        final WheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+            this.timeout = null;
+        }
+
+        return result;
+    }
+
+    private void dispatch(final Map<K, CompletableFuture<V>> batch) {
+
+        record(batch.size());
+
+        @Nullable
+        CompletionStage<? extends Map<K, ? extends V>> stage;
+        try {
+            stage = this.batchFunction.apply(new ArrayList<>(batch.keySet()));
+        } catch (final Exception e) {
+            stage = Futures.failed(e);
+        }
+
+        if (stage == null) {
+            stage = Futures.failed(new NullPointerException("Batch function returned a null stage"));
+        }
+
+        stage.whenComplete((values, error) -> {
+
+            if (error != null) {
+                final Throwable cause = Futures.unwrap(error);
+                batch.values().forEach(future -> future.completeExceptionally(cause));
+                return;
+            }
+
+            if (values == null) {
+                final NullPointerException cause = new NullPointerException("Batch function returned a null map");
+                batch.values().forEach(future -> future.completeExceptionally(cause));
+                return;
+            }
+
+            for (final Map.Entry<K, CompletableFuture<V>> entry : batch.entrySet()) {
+                if (values.containsKey(entry.getKey())) {
+                    entry.getValue().complete(values.get(entry.getKey()));
+                } else {
+                    entry.getValue().completeExceptionally(
+                            new NoSuchElementException(String.format("No result for key: %s", entry.getKey())));
+                }
+            }
+
+        });
+    }
+
+    private void record(final int size) {
+        this.keys.add(size);
+        this.histogram[Math.min(HISTOGRAM_SIZE - 1, 31 - Integer.numberOfLeadingZeros(size))].increment();
+    }
+
+    /**
+     * Get the number of requests.
+     *
+     * @return the number of calls to {@link #load(Object)}
+     */
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    /**
+     * Get the number of keys which got dispatched.
+     * <p>
+     * This may be lower than the number of requests, as requests for the same key
+     * are coalesced.
+     *
+     * @return the number of dispatched keys
+     */
+    public long getKeyCount() {
+        return this.keys.sum();
+    }
+
+    /**
+     * Get the number of batches which got dispatched.
+     *
+     * @return the number of calls to the batch function
+     */
+    public long getBatchCount() {
+        long result = 0;
+        for (final LongAdder bucket : this.histogram) {
+            result += bucket.sum();
+        }
+        return result;
+    }
+
+    /**
+     * Get the distribution of the batch sizes.
+     * <p>
+     * Index {@code i} of the returned array holds the number of batches with a
+     * size between {@code 2^i} (inclusive) and {@code 2^(i+1)} (exclusive).
+     *
+     * @return a new array, holding the number of batches per size class
+     */
+    public long[] getBatchSizeHistogram() {
+        final long[] result = new long[HISTOGRAM_SIZE];
+        for (int i = 0; i < HISTOGRAM_SIZE; i++) {
+            result[i] = this.histogram[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Batcher: maxBatchSize %s, maxDelay %s, batches %s, keys %s]", this.maxBatchSize,
+                this.maxDelay, getBatchCount(), getKeyCount());
+    }
+}
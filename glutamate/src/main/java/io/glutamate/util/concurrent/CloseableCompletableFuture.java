@@ -10,31 +10,106 @@
  *******************************************************************************/
 package io.glutamate.util.concurrent;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
+import io.glutamate.lang.Exceptions;
+import io.glutamate.lang.Suppress;
+import io.glutamate.time.Durations;
+
 /**
  * A closable version of the {@link CompletableFuture}.
+ * <p>
+ * Derived stages are closeable futures as well, closing them closes this
+ * future. See {@link CloseableCompletionStage} for details.
  *
  * @param <T>
  *            the type of the result
  */
 public class CloseableCompletableFuture<T> extends CompletableFuture<T> implements CloseableCompletionStage<T> {
 
-    private static class Entry {
+    /**
+     * A handle to a listener registered with {@link #onClose(Runnable)}.
+     */
+    public interface Registration {
+        /**
+         * Remove the listener.
+         * <p>
+         * This is an {@code O(1)} operation. The entry of the listener gets
+         * unlinked lazily, once enough listeners have been removed.
+         *
+         * @return {@code true} if the listener got removed by this call,
+         *         {@code false} if it was already removed, or already ran
+         */
+        public boolean cancel();
+    }
+
+    private static final Registration NOOP = () -> false;
+
+    /**
+     * The minimum number of removed entries, after which the list gets
+     * compacted.
+     */
+    private static final int COMPACT_THRESHOLD = 64;
+
+    private static class Entry implements Registration {
         @Nullable
-        Entry next;
+        volatile Entry next;
         @Nullable
-        Runnable runnable;
+        volatile Runnable runnable;
         boolean closed;
+
+        @Nullable
+        CloseableCompletableFuture<?> owner;
+
+        @Override
+        public boolean cancel() {
+            if (RUNNABLE.getAndSet(this, null) == null) {
+                return false;
+            }
+            final CloseableCompletableFuture<?> owner = this.owner;
+            if (owner != null) {
+                owner.removed();
+            }
+            return true;
+        }
     }
 
+    private static final AtomicReferenceFieldUpdater<Entry, Runnable> RUNNABLE = AtomicReferenceFieldUpdater
+            .newUpdater(Entry.class, Runnable.class, "runnable");
+
     private final AtomicReference<Entry> closing = new AtomicReference<>();
+    private final AtomicInteger removed = new AtomicInteger();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    /**
+     * The number of removed entries, after which the list gets compacted.
+     * Scaled to half of the remaining entries, so that the cost of walking the
+     * list is paid for by a proportional number of removals, while removing
+     * all remaining entries still reaches the threshold.
+     */
+    private volatile int compactThreshold = COMPACT_THRESHOLD;
 
     @Override
     public @NonNull CloseableCompletableFuture<T> toCompletableFuture() {
@@ -43,26 +118,107 @@ public class CloseableCompletableFuture<T> extends CompletableFuture<T> implemen
 
     /**
      * Run code when the future gets closed.
+     * <p>
+     * If the future is already closed, the code runs right away.
      *
      * @param runnable
      *            The code to run
+     * @see #onClose(Runnable)
      */
     public void whenClosed(@NonNull final Runnable runnable) {
+        onClose(runnable);
+    }
+
+    /**
+     * Run code when the future gets closed, allowing to remove it again.
+     * <p>
+     * If the future is already closed, the code runs right away.
+     *
+     * @param runnable
+     *            The code to run
+     * @return the handle for removing the listener again
+     */
+    public @NonNull Registration onClose(@NonNull final Runnable runnable) {
         Objects.requireNonNull(runnable);
 
         final Entry next = new Entry();
         next.runnable = runnable;
+        next.owner = this;
 
+        Entry head;
         do {
-            next.next = this.closing.get();
-            final Entry nextNext = next.next;
-            if (nextNext != null && nextNext.closed) {
+            head = this.closing.get();
+            if (head != null && head.closed) {
                 // handle right now
                 runnable.run();
-                return;
+                return NOOP;
+            }
+            next.next = head;
+
+        } while (!this.closing.compareAndSet(head, next));
+
+        return next;
+    }
+
+    private void removed() {
+        if (this.removed.incrementAndGet() >= this.compactThreshold && this.compacting.compareAndSet(false, true)) {
+            try {
+                compact();
+            } finally {
+                this.compacting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Unlink removed entries.
+     * <p>
+     * Only one thread compacts at a time. New entries are only pushed to the
+     * head, so the compacting thread can safely re-link entries after the head.
+     * Entries are never re-used, so popping the head with a CAS is safe as
+     * well.
+     */
+    private void compact() {
+        Entry head = this.closing.get();
+        while (head != null && !head.closed && head.runnable == null) {
+            this.closing.compareAndSet(head, head.next);
+            head = this.closing.get();
+        }
+
+        int remaining = 0;
+
+        if (head != null && !head.closed) {
+            remaining++;
+            Entry current = head;
+            Entry next;
+            while ((next = current.next) != null) {
+                if (next.runnable == null) {
+                    current.next = next.next;
+                } else {
+                    current = next;
+                    remaining++;
+                }
             }
+        }
 
-        } while (!this.closing.compareAndSet(next.next, next));
+        /*
+         * All removed entries got unlinked. Entries removed concurrently may be
+         * missed by the counter, they get unlinked with the next compaction.
+         */
+        this.removed.set(0);
+        this.compactThreshold = Math.max(COMPACT_THRESHOLD, remaining / 2);
+    }
+
+    /**
+     * Get the number of entries, including removed entries which are not yet
+     * unlinked.
+     */
+    int getEntryCount() {
+        int result = 0;
+        for (Entry current = this.closing.get(); current != null && !current.closed; current = current.next) {
+            result++;
+        }
+        return result;
     }
 
     @Override
@@ -75,7 +231,7 @@ public class CloseableCompletableFuture<T> extends CompletableFuture<T> implemen
         while (current != null && !current.closed) {
 
             try {
-                final Runnable runnable = current.runnable;
+                final Runnable runnable = RUNNABLE.getAndSet(current, null);
                 if (runnable != null) {
                     runnable.run();
                 }
@@ -90,20 +246,350 @@ public class CloseableCompletableFuture<T> extends CompletableFuture<T> implemen
         }
 
         if (errors != null) {
-            final Throwable e = errors.pollFirst();
-            final Exception first;
-            if (e instanceof Exception) {
-                first = (Exception) e;
+            throwErrors(errors);
+        }
+    }
+
+    /**
+     * Close the future, running the close handlers concurrently.
+     * <p>
+     * Each close handler is submitted to the provided executor. The method
+     * waits until all handlers completed, or the timeout expired. Handlers
+     * which did not complete in time are reported as a
+     * {@link TimeoutException}, but keep running. Errors are reported the same
+     * way {@link #close()} does.
+     *
+     * @param executor
+     *            the executor to run the close handlers on
+     * @param timeout
+     *            the time to wait for all handlers together, {@code null} or
+     *            zero to wait forever
+     * @throws Exception
+     *             if a close handler failed, or did not complete in time
+     */
+    public void close(@NonNull final Executor executor, @Nullable final Duration timeout) throws Exception {
+        Objects.requireNonNull(executor);
+
+        final List<Runnable> runnables = new ArrayList<>();
+        for (Entry current = markClosed(); current != null && !current.closed; current = current.next) {
+            final Runnable runnable = RUNNABLE.getAndSet(current, null);
+            if (runnable != null) {
+                runnables.add(runnable);
+            }
+        }
+
+        if (runnables.isEmpty()) {
+            return;
+        }
+
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        final CountDownLatch latch = new CountDownLatch(runnables.size());
+
+        for (final Runnable runnable : runnables) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        runnable.run();
+                    } catch (final Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                errors.add(e);
+                latch.countDown();
+            }
+        }
+
+        try {
+            final boolean completed;
+            if (timeout == null || timeout.isZero()) {
+                latch.await();
+                completed = true;
             } else {
-                first = new Exception();
+                completed = Durations.map(timeout.abs(), latch::await);
+            }
+
+            if (!completed) {
+                errors.add(new TimeoutException(String.format("%s of %s close handlers did not complete within %s",
+                        latch.getCount(), runnables.size(), timeout)));
             }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errors.add(e);
+        }
+
+        if (!errors.isEmpty()) {
+            throwErrors(new LinkedList<>(errors));
+        }
+    }
 
-            errors.forEach(first::addSuppressed);
-            throw first;
+    private static void throwErrors(final LinkedList<Throwable> errors) throws Exception {
+        final Throwable e = errors.pollFirst();
+        final Exception first;
+        if (e instanceof Exception) {
+            first = (Exception) e;
+        } else {
+            first = new Exception();
         }
+
+        errors.forEach(first::addSuppressed);
+        throw first;
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> thenApply(final Function<? super T, ? extends U> fn) {
+        return derive(super.thenApply(fn));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> thenApplyAsync(final Function<? super T, ? extends U> fn) {
+        return derive(super.thenApplyAsync(fn));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> thenApplyAsync(final Function<? super T, ? extends U> fn,
+            final Executor executor) {
+        return derive(super.thenApplyAsync(fn, executor));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> thenAccept(final Consumer<? super T> action) {
+        return derive(super.thenAccept(action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> thenAcceptAsync(final Consumer<? super T> action) {
+        return derive(super.thenAcceptAsync(action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> thenAcceptAsync(final Consumer<? super T> action, final Executor executor) {
+        return derive(super.thenAcceptAsync(action, executor));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> thenRun(final Runnable action) {
+        return derive(super.thenRun(action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> thenRunAsync(final Runnable action) {
+        return derive(super.thenRunAsync(action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> thenRunAsync(final Runnable action, final Executor executor) {
+        return derive(super.thenRunAsync(action, executor));
+    }
+
+    @Override
+    public <U, V> CloseableCompletableFuture<V> thenCombine(final CompletionStage<? extends U> other,
+            final BiFunction<? super T, ? super U, ? extends V> fn) {
+        return derive(super.thenCombine(other, fn));
     }
 
-    private Entry markClosed() {
+    @Override
+    public <U, V> CloseableCompletableFuture<V> thenCombineAsync(final CompletionStage<? extends U> other,
+            final BiFunction<? super T, ? super U, ? extends V> fn) {
+        return derive(super.thenCombineAsync(other, fn));
+    }
+
+    @Override
+    public <U, V> CloseableCompletableFuture<V> thenCombineAsync(final CompletionStage<? extends U> other,
+            final BiFunction<? super T, ? super U, ? extends V> fn, final Executor executor) {
+        return derive(super.thenCombineAsync(other, fn, executor));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<Void> thenAcceptBoth(final CompletionStage<? extends U> other,
+            final BiConsumer<? super T, ? super U> action) {
+        return derive(super.thenAcceptBoth(other, action));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<Void> thenAcceptBothAsync(final CompletionStage<? extends U> other,
+            final BiConsumer<? super T, ? super U> action) {
+        return derive(super.thenAcceptBothAsync(other, action));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<Void> thenAcceptBothAsync(final CompletionStage<? extends U> other,
+            final BiConsumer<? super T, ? super U> action, final Executor executor) {
+        return derive(super.thenAcceptBothAsync(other, action, executor));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> runAfterBoth(final CompletionStage<?> other, final Runnable action) {
+        return derive(super.runAfterBoth(other, action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> runAfterBothAsync(final CompletionStage<?> other, final Runnable action) {
+        return derive(super.runAfterBothAsync(other, action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> runAfterBothAsync(final CompletionStage<?> other,
+            final Runnable action, final Executor executor) {
+        return derive(super.runAfterBothAsync(other, action, executor));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> applyToEither(final CompletionStage<? extends T> other,
+            final Function<? super T, U> fn) {
+        return derive(super.applyToEither(other, fn));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> applyToEitherAsync(final CompletionStage<? extends T> other,
+            final Function<? super T, U> fn) {
+        return derive(super.applyToEitherAsync(other, fn));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> applyToEitherAsync(final CompletionStage<? extends T> other,
+            final Function<? super T, U> fn, final Executor executor) {
+        return derive(super.applyToEitherAsync(other, fn, executor));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> acceptEither(final CompletionStage<? extends T> other,
+            final Consumer<? super T> action) {
+        return derive(super.acceptEither(other, action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> acceptEitherAsync(final CompletionStage<? extends T> other,
+            final Consumer<? super T> action) {
+        return derive(super.acceptEitherAsync(other, action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> acceptEitherAsync(final CompletionStage<? extends T> other,
+            final Consumer<? super T> action, final Executor executor) {
+        return derive(super.acceptEitherAsync(other, action, executor));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> runAfterEither(final CompletionStage<?> other, final Runnable action) {
+        return derive(super.runAfterEither(other, action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> runAfterEitherAsync(final CompletionStage<?> other, final Runnable action) {
+        return derive(super.runAfterEitherAsync(other, action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<Void> runAfterEitherAsync(final CompletionStage<?> other,
+            final Runnable action, final Executor executor) {
+        return derive(super.runAfterEitherAsync(other, action, executor));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> thenCompose(final Function<? super T, ? extends CompletionStage<U>> fn) {
+        final AtomicReference<Object> inner = new AtomicReference<>();
+        return derive(super.thenCompose(track(fn, inner)), inner);
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> thenComposeAsync(final Function<? super T,
+            ? extends CompletionStage<U>> fn) {
+        final AtomicReference<Object> inner = new AtomicReference<>();
+        return derive(super.thenComposeAsync(track(fn, inner)), inner);
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> thenComposeAsync(final Function<? super T,
+            ? extends CompletionStage<U>> fn, final Executor executor) {
+        final AtomicReference<Object> inner = new AtomicReference<>();
+        return derive(super.thenComposeAsync(track(fn, inner), executor), inner);
+    }
+
+    @Override
+    public CloseableCompletableFuture<T> exceptionally(final Function<Throwable, ? extends T> fn) {
+        return derive(super.exceptionally(fn));
+    }
+
+    @Override
+    public CloseableCompletableFuture<T> whenComplete(final BiConsumer<? super T, ? super Throwable> action) {
+        return derive(super.whenComplete(action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<T> whenCompleteAsync(final BiConsumer<? super T, ? super Throwable> action) {
+        return derive(super.whenCompleteAsync(action));
+    }
+
+    @Override
+    public CloseableCompletableFuture<T> whenCompleteAsync(final BiConsumer<? super T, ? super Throwable> action,
+            final Executor executor) {
+        return derive(super.whenCompleteAsync(action, executor));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> handle(final BiFunction<? super T, Throwable, ? extends U> fn) {
+        return derive(super.handle(fn));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> handleAsync(final BiFunction<? super T, Throwable, ? extends U> fn) {
+        return derive(super.handleAsync(fn));
+    }
+
+    @Override
+    public <U> CloseableCompletableFuture<U> handleAsync(final BiFunction<? super T, Throwable, ? extends U> fn,
+            final Executor executor) {
+        return derive(super.handleAsync(fn, executor));
+    }
+
+    /**
+     * Derive a new future, closing this future when it gets closed.
+     */
+    private <U> CloseableCompletableFuture<U> derive(final CompletableFuture<U> derived) {
+        final CloseableCompletableFuture<U> result = mirror(derived);
+        result.whenClosed(() -> Exceptions.wrap(() -> {
+            close();
+        }));
+        return result;
+    }
+
+    /**
+     * Derive a new future, closing this future and the composed stage when it
+     * gets closed.
+     */
+    private <U> CloseableCompletableFuture<U> derive(final CompletableFuture<U> derived,
+            final AtomicReference<Object> inner) {
+        final CloseableCompletableFuture<U> result = mirror(derived);
+        result.whenClosed(() -> Exceptions.wrap(() -> {
+            try (Suppress<Exception> s = Suppress.exception()) {
+                s.close(this);
+                s.run(() -> CloseableCompletionStageImpl.closeInner(inner));
+            }
+        }));
+        return result;
+    }
+
+    private static <U> CloseableCompletableFuture<U> mirror(final CompletableFuture<U> derived) {
+        final CloseableCompletableFuture<U> result = new CloseableCompletableFuture<>();
+        derived.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    private static <T, U> Function<T, CompletionStage<U>> track(
+            final Function<? super T, ? extends CompletionStage<U>> fn, final AtomicReference<Object> inner) {
+        return CloseableCompletionStageImpl.track(fn, inner);
+    }
+
+    Entry markClosed() {
         final Entry entry = new Entry();
         entry.closed = true;
         final Entry current = this.closing.getAndSet(entry);
@@ -131,15 +617,25 @@ public class CloseableCompletableFuture<T> extends CompletableFuture<T> implemen
 
     /**
      * Create a new succeeded, completed, closed future.
+     * <p>
+     * For common values, like {@code null}, {@link Boolean}s, small
+     * {@link Integer}s and {@link java.util.Optional#empty()}, a shared instance
+     * is returned. Shared instances reject attempts to obtrude a different
+     * outcome.
      *
      * @param value
      *            The value to succeed with
      * @param <T>
      *            the result type
-     * @return A new instance
+     * @return A completed instance
      */
     public static <@Nullable T> @NonNull CloseableCompletableFuture<T> succeeded(final T value) {
 
+        final CloseableCompletableFuture<T> shared = CompletedFutures.lookupCloseable(value);
+        if (shared != null) {
+            return shared;
+        }
+
         final CloseableCompletableFuture<T> result = new CloseableCompletableFuture<>();
         result.complete(value);
         result.markClosed();
@@ -12,11 +12,28 @@ package io.glutamate.util.concurrent;
 
 import java.util.Objects;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 
 /**
  * A closable version of the {@link CompletionStage}
+ * <p>
+ * All stages derived from a closeable stage are closeable as well. A derived
+ * stage owns the stage it was derived from: closing the derived stage closes
+ * the stage it was derived from, up to the root of the pipeline. So closing the
+ * last stage of a pipeline releases the resources of the whole pipeline. Stages
+ * passed in as arguments, like the {@code other} stage of
+ * {@link #thenCombine(CompletionStage, BiFunction)}, are not owned. Stages
+ * returned by the function of {@link #thenCompose(Function)} are owned, and
+ * get closed as well, in case they are {@link AutoCloseable}.
+ * <p>
+ * Closing a stage only propagates upstream, other stages derived from the same
+ * source are not closed, but their source is.
  *
  * @param <T>
  *            the type of the result
@@ -57,4 +74,130 @@ public interface CloseableCompletionStage<T> extends CompletionStage<T>, AutoClo
         return of(stage, () -> {
         });
     }
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenApply(Function<? super T, ? extends U> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor);
+
+    @Override
+    public CloseableCompletionStage<Void> thenAccept(Consumer<? super T> action);
+
+    @Override
+    public CloseableCompletionStage<Void> thenAcceptAsync(Consumer<? super T> action);
+
+    @Override
+    public CloseableCompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor);
+
+    @Override
+    public CloseableCompletionStage<Void> thenRun(Runnable action);
+
+    @Override
+    public CloseableCompletionStage<Void> thenRunAsync(Runnable action);
+
+    @Override
+    public CloseableCompletionStage<Void> thenRunAsync(Runnable action, Executor executor);
+
+    @Override
+    public <U, V> CloseableCompletionStage<V> thenCombine(CompletionStage<? extends U> other, BiFunction<? super T,
+            ? super U, ? extends V> fn);
+
+    @Override
+    public <U, V> CloseableCompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+            BiFunction<? super T, ? super U, ? extends V> fn);
+
+    @Override
+    public <U, V> CloseableCompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+            BiFunction<? super T, ? super U, ? extends V> fn, Executor executor);
+
+    @Override
+    public <U> CloseableCompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other, BiConsumer<? super T,
+            ? super U> action);
+
+    @Override
+    public <U> CloseableCompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+            BiConsumer<? super T, ? super U> action);
+
+    @Override
+    public <U> CloseableCompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
+            BiConsumer<? super T, ? super U> action, Executor executor);
+
+    @Override
+    public CloseableCompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action);
+
+    @Override
+    public CloseableCompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action);
+
+    @Override
+    public CloseableCompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action,
+            Executor executor);
+
+    @Override
+    public <U> CloseableCompletionStage<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T,
+            U> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T,
+            U> fn, Executor executor);
+
+    @Override
+    public CloseableCompletionStage<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action);
+
+    @Override
+    public CloseableCompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other,
+            Consumer<? super T> action);
+
+    @Override
+    public CloseableCompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other,
+            Consumer<? super T> action, Executor executor);
+
+    @Override
+    public CloseableCompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action);
+
+    @Override
+    public CloseableCompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action);
+
+    @Override
+    public CloseableCompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action,
+            Executor executor);
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn,
+            Executor executor);
+
+    @Override
+    public CloseableCompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn);
+
+    @Override
+    public CloseableCompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action);
+
+    @Override
+    public CloseableCompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action);
+
+    @Override
+    public CloseableCompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action,
+            Executor executor);
+
+    @Override
+    public <U> CloseableCompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn);
+
+    @Override
+    public <U> CloseableCompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn,
+            Executor executor);
 }
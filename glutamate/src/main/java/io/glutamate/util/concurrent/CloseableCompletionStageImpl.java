@@ -13,15 +13,22 @@ package io.glutamate.util.concurrent;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import io.glutamate.lang.Suppress;
+
 final class CloseableCompletionStageImpl<T> implements CloseableCompletionStage<T> {
 
+    private static final Object CLOSED = new Object();
+
     private final CompletionStage<T> stage;
     private final AutoCloseable closeHandler;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public CloseableCompletionStageImpl(final CompletionStage<T> stage, final AutoCloseable closeHandler) {
         this.stage = stage;
@@ -30,211 +37,279 @@ final class CloseableCompletionStageImpl<T> implements CloseableCompletionStage<
 
     @Override
     public void close() throws Exception {
-        this.closeHandler.close();
-    }
-
-    @Override
-    public <U> CompletionStage<U> thenApply(final Function<? super T, ? extends U> fn) {
-        return this.stage.thenApply(fn);
-    }
-
-    @Override
-    public <U> CompletionStage<U> thenApplyAsync(final Function<? super T, ? extends U> fn) {
-        return this.stage.thenApplyAsync(fn);
-    }
-
-    @Override
-    public <U> CompletionStage<U> thenApplyAsync(final Function<? super T, ? extends U> fn, final Executor executor) {
-        return this.stage.thenApplyAsync(fn, executor);
+        if (this.closed.compareAndSet(false, true)) {
+            this.closeHandler.close();
+        }
+    }
+
+    /**
+     * Derive a new stage, closing this stage when it gets closed.
+     */
+    private <U> CloseableCompletionStage<U> derive(final CompletionStage<U> derived) {
+        return new CloseableCompletionStageImpl<>(derived, this);
+    }
+
+    /**
+     * Derive a new stage, closing this stage and the composed stage when it
+     * gets closed.
+     */
+    private <U> CloseableCompletionStage<U> derive(final CompletionStage<U> derived,
+            final AtomicReference<Object> inner) {
+        return new CloseableCompletionStageImpl<>(derived, () -> {
+            try (Suppress<Exception> s = Suppress.exception()) {
+                s.close(this);
+                s.run(() -> closeInner(inner));
+            }
+        });
+    }
+
+    /**
+     * Track the stage returned by a compose function.
+     * <p>
+     * If the stage got closed before the composed stage was created, the
+     * composed stage gets closed right away.
+     *
+     * @param fn
+     *            the compose function
+     * @param inner
+     *            the reference to the composed stage
+     * @return the tracking function
+     */
+    static <T, U> Function<T, CompletionStage<U>> track(final Function<? super T, ? extends CompletionStage<U>> fn,
+            final AtomicReference<Object> inner) {
+        return value -> {
+            final CompletionStage<U> result = fn.apply(value);
+            if (!inner.compareAndSet(null, result) && result instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) result).close();
+                } catch (final Exception e) {
+                    // nobody is interested in the outcome anymore
+                }
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Close the stage tracked by {@link #track(Function, AtomicReference)}.
+     *
+     * @param inner
+     *            the reference to the composed stage
+     * @throws Exception
+     *             if closing the composed stage failed
+     */
+    static void closeInner(final AtomicReference<Object> inner) throws Exception {
+        final Object current = inner.getAndSet(CLOSED);
+        if (current instanceof AutoCloseable) {
+            ((AutoCloseable) current).close();
+        }
+    }
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenApply(final Function<? super T, ? extends U> fn) {
+        return derive(this.stage.thenApply(fn));
+    }
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenApplyAsync(final Function<? super T, ? extends U> fn) {
+        return derive(this.stage.thenApplyAsync(fn));
+    }
+
+    @Override
+    public <U> CloseableCompletionStage<U> thenApplyAsync(final Function<? super T, ? extends U> fn,
+            final Executor executor) {
+        return derive(this.stage.thenApplyAsync(fn, executor));
     }
 
     @Override
-    public CompletionStage<Void> thenAccept(final Consumer<? super T> action) {
-        return this.stage.thenAccept(action);
+    public CloseableCompletionStage<Void> thenAccept(final Consumer<? super T> action) {
+        return derive(this.stage.thenAccept(action));
     }
 
     @Override
-    public CompletionStage<Void> thenAcceptAsync(final Consumer<? super T> action) {
-        return this.stage.thenAcceptAsync(action);
+    public CloseableCompletionStage<Void> thenAcceptAsync(final Consumer<? super T> action) {
+        return derive(this.stage.thenAcceptAsync(action));
     }
 
     @Override
-    public CompletionStage<Void> thenAcceptAsync(final Consumer<? super T> action, final Executor executor) {
-        return this.stage.thenAcceptAsync(action, executor);
+    public CloseableCompletionStage<Void> thenAcceptAsync(final Consumer<? super T> action, final Executor executor) {
+        return derive(this.stage.thenAcceptAsync(action, executor));
     }
 
     @Override
-    public CompletionStage<Void> thenRun(final Runnable action) {
-        return this.stage.thenRun(action);
+    public CloseableCompletionStage<Void> thenRun(final Runnable action) {
+        return derive(this.stage.thenRun(action));
     }
 
     @Override
-    public CompletionStage<Void> thenRunAsync(final Runnable action) {
-        return this.stage.thenRunAsync(action);
+    public CloseableCompletionStage<Void> thenRunAsync(final Runnable action) {
+        return derive(this.stage.thenRunAsync(action));
     }
 
     @Override
-    public CompletionStage<Void> thenRunAsync(final Runnable action, final Executor executor) {
-        return this.stage.thenRunAsync(action, executor);
+    public CloseableCompletionStage<Void> thenRunAsync(final Runnable action, final Executor executor) {
+        return derive(this.stage.thenRunAsync(action, executor));
     }
 
     @Override
-    public <U, V> CompletionStage<V> thenCombine(final CompletionStage<? extends U> other,
+    public <U, V> CloseableCompletionStage<V> thenCombine(final CompletionStage<? extends U> other,
             final BiFunction<? super T, ? super U, ? extends V> fn) {
-        return this.stage.thenCombine(other, fn);
+        return derive(this.stage.thenCombine(other, fn));
     }
 
     @Override
-    public <U, V> CompletionStage<V> thenCombineAsync(final CompletionStage<? extends U> other,
+    public <U, V> CloseableCompletionStage<V> thenCombineAsync(final CompletionStage<? extends U> other,
             final BiFunction<? super T, ? super U, ? extends V> fn) {
-        return this.stage.thenCombineAsync(other, fn);
+        return derive(this.stage.thenCombineAsync(other, fn));
     }
 
     @Override
-    public <U, V> CompletionStage<V> thenCombineAsync(final CompletionStage<? extends U> other,
+    public <U, V> CloseableCompletionStage<V> thenCombineAsync(final CompletionStage<? extends U> other,
             final BiFunction<? super T, ? super U, ? extends V> fn, final Executor executor) {
-        return this.stage.thenCombineAsync(other, fn, executor);
+        return derive(this.stage.thenCombineAsync(other, fn, executor));
     }
 
     @Override
-    public <U> CompletionStage<Void> thenAcceptBoth(final CompletionStage<? extends U> other,
+    public <U> CloseableCompletionStage<Void> thenAcceptBoth(final CompletionStage<? extends U> other,
             final BiConsumer<? super T, ? super U> action) {
-        return this.stage.thenAcceptBoth(other, action);
+        return derive(this.stage.thenAcceptBoth(other, action));
     }
 
     @Override
-    public <U> CompletionStage<Void> thenAcceptBothAsync(final CompletionStage<? extends U> other,
+    public <U> CloseableCompletionStage<Void> thenAcceptBothAsync(final CompletionStage<? extends U> other,
             final BiConsumer<? super T, ? super U> action) {
-        return this.stage.thenAcceptBothAsync(other, action);
+        return derive(this.stage.thenAcceptBothAsync(other, action));
     }
 
     @Override
-    public <U> CompletionStage<Void> thenAcceptBothAsync(final CompletionStage<? extends U> other,
+    public <U> CloseableCompletionStage<Void> thenAcceptBothAsync(final CompletionStage<? extends U> other,
             final BiConsumer<? super T, ? super U> action, final Executor executor) {
-        return this.stage.thenAcceptBothAsync(other, action, executor);
+        return derive(this.stage.thenAcceptBothAsync(other, action, executor));
     }
 
     @Override
-    public CompletionStage<Void> runAfterBoth(final CompletionStage<?> other, final Runnable action) {
-        return this.stage.runAfterBoth(other, action);
+    public CloseableCompletionStage<Void> runAfterBoth(final CompletionStage<?> other, final Runnable action) {
+        return derive(this.stage.runAfterBoth(other, action));
     }
 
     @Override
-    public CompletionStage<Void> runAfterBothAsync(final CompletionStage<?> other, final Runnable action) {
-        return this.stage.runAfterBothAsync(other, action);
+    public CloseableCompletionStage<Void> runAfterBothAsync(final CompletionStage<?> other, final Runnable action) {
+        return derive(this.stage.runAfterBothAsync(other, action));
     }
 
     @Override
-    public CompletionStage<Void> runAfterBothAsync(final CompletionStage<?> other, final Runnable action,
-            final Executor executor) {
-        return this.stage.runAfterBothAsync(other, action, executor);
+    public CloseableCompletionStage<Void> runAfterBothAsync(final CompletionStage<?> other,
+            final Runnable action, final Executor executor) {
+        return derive(this.stage.runAfterBothAsync(other, action, executor));
     }
 
     @Override
-    public <U> CompletionStage<U> applyToEither(final CompletionStage<? extends T> other,
+    public <U> CloseableCompletionStage<U> applyToEither(final CompletionStage<? extends T> other,
             final Function<? super T, U> fn) {
-        return this.stage.applyToEither(other, fn);
+        return derive(this.stage.applyToEither(other, fn));
     }
 
     @Override
-    public <U> CompletionStage<U> applyToEitherAsync(final CompletionStage<? extends T> other,
+    public <U> CloseableCompletionStage<U> applyToEitherAsync(final CompletionStage<? extends T> other,
             final Function<? super T, U> fn) {
-        return this.stage.applyToEitherAsync(other, fn);
+        return derive(this.stage.applyToEitherAsync(other, fn));
     }
 
     @Override
-    public <U> CompletionStage<U> applyToEitherAsync(final CompletionStage<? extends T> other,
-            final Function<? super T, U> fn,
-            final Executor executor) {
-        return this.stage.applyToEitherAsync(other, fn, executor);
+    public <U> CloseableCompletionStage<U> applyToEitherAsync(final CompletionStage<? extends T> other,
+            final Function<? super T, U> fn, final Executor executor) {
+        return derive(this.stage.applyToEitherAsync(other, fn, executor));
     }
 
     @Override
-    public CompletionStage<Void> acceptEither(final CompletionStage<? extends T> other,
+    public CloseableCompletionStage<Void> acceptEither(final CompletionStage<? extends T> other,
             final Consumer<? super T> action) {
-        return this.stage.acceptEither(other, action);
+        return derive(this.stage.acceptEither(other, action));
     }
 
     @Override
-    public CompletionStage<Void> acceptEitherAsync(final CompletionStage<? extends T> other,
+    public CloseableCompletionStage<Void> acceptEitherAsync(final CompletionStage<? extends T> other,
             final Consumer<? super T> action) {
-        return this.stage.acceptEitherAsync(other, action);
+        return derive(this.stage.acceptEitherAsync(other, action));
     }
 
     @Override
-    public CompletionStage<Void> acceptEitherAsync(final CompletionStage<? extends T> other,
-            final Consumer<? super T> action,
-            final Executor executor) {
-        return this.stage.acceptEitherAsync(other, action, executor);
+    public CloseableCompletionStage<Void> acceptEitherAsync(final CompletionStage<? extends T> other,
+            final Consumer<? super T> action, final Executor executor) {
+        return derive(this.stage.acceptEitherAsync(other, action, executor));
     }
 
     @Override
-    public CompletionStage<Void> runAfterEither(final CompletionStage<?> other, final Runnable action) {
-        return this.stage.runAfterEither(other, action);
+    public CloseableCompletionStage<Void> runAfterEither(final CompletionStage<?> other, final Runnable action) {
+        return derive(this.stage.runAfterEither(other, action));
     }
 
     @Override
-    public CompletionStage<Void> runAfterEitherAsync(final CompletionStage<?> other, final Runnable action) {
-        return this.stage.runAfterEitherAsync(other, action);
+    public CloseableCompletionStage<Void> runAfterEitherAsync(final CompletionStage<?> other, final Runnable action) {
+        return derive(this.stage.runAfterEitherAsync(other, action));
     }
 
     @Override
-    public CompletionStage<Void> runAfterEitherAsync(final CompletionStage<?> other, final Runnable action,
-            final Executor executor) {
-        return this.stage.runAfterEitherAsync(other, action, executor);
+    public CloseableCompletionStage<Void> runAfterEitherAsync(final CompletionStage<?> other,
+            final Runnable action, final Executor executor) {
+        return derive(this.stage.runAfterEitherAsync(other, action, executor));
     }
 
     @Override
-    public <U> CompletionStage<U> thenCompose(final Function<? super T, ? extends CompletionStage<U>> fn) {
-        return this.stage.thenCompose(fn);
+    public <U> CloseableCompletionStage<U> thenCompose(final Function<? super T, ? extends CompletionStage<U>> fn) {
+        final AtomicReference<Object> inner = new AtomicReference<>();
+        return derive(this.stage.thenCompose(track(fn, inner)), inner);
     }
 
     @Override
-    public <U> CompletionStage<U> thenComposeAsync(final Function<? super T, ? extends CompletionStage<U>> fn) {
-        return this.stage.thenComposeAsync(fn);
+    public <U> CloseableCompletionStage<U> thenComposeAsync(final Function<? super T,
+            ? extends CompletionStage<U>> fn) {
+        final AtomicReference<Object> inner = new AtomicReference<>();
+        return derive(this.stage.thenComposeAsync(track(fn, inner)), inner);
     }
 
     @Override
-    public <U> CompletionStage<U> thenComposeAsync(final Function<? super T, ? extends CompletionStage<U>> fn,
+    public <U> CloseableCompletionStage<U> thenComposeAsync(final Function<? super T, ? extends CompletionStage<U>> fn,
             final Executor executor) {
-        return this.stage.thenComposeAsync(fn, executor);
+        final AtomicReference<Object> inner = new AtomicReference<>();
+        return derive(this.stage.thenComposeAsync(track(fn, inner), executor), inner);
     }
 
     @Override
-    public CompletionStage<T> exceptionally(final Function<Throwable, ? extends T> fn) {
-        return this.stage.exceptionally(fn);
+    public CloseableCompletionStage<T> exceptionally(final Function<Throwable, ? extends T> fn) {
+        return derive(this.stage.exceptionally(fn));
     }
 
     @Override
-    public CompletionStage<T> whenComplete(final BiConsumer<? super T, ? super Throwable> action) {
-        return this.stage.whenComplete(action);
+    public CloseableCompletionStage<T> whenComplete(final BiConsumer<? super T, ? super Throwable> action) {
+        return derive(this.stage.whenComplete(action));
     }
 
     @Override
-    public CompletionStage<T> whenCompleteAsync(final BiConsumer<? super T, ? super Throwable> action) {
-        return this.stage.whenCompleteAsync(action);
+    public CloseableCompletionStage<T> whenCompleteAsync(final BiConsumer<? super T, ? super Throwable> action) {
+        return derive(this.stage.whenCompleteAsync(action));
     }
 
     @Override
-    public CompletionStage<T> whenCompleteAsync(final BiConsumer<? super T, ? super Throwable> action,
+    public CloseableCompletionStage<T> whenCompleteAsync(final BiConsumer<? super T, ? super Throwable> action,
             final Executor executor) {
-        return this.stage.whenCompleteAsync(action, executor);
+        return derive(this.stage.whenCompleteAsync(action, executor));
     }
 
     @Override
-    public <U> CompletionStage<U> handle(final BiFunction<? super T, Throwable, ? extends U> fn) {
-        return this.stage.handle(fn);
+    public <U> CloseableCompletionStage<U> handle(final BiFunction<? super T, Throwable, ? extends U> fn) {
+        return derive(this.stage.handle(fn));
     }
 
     @Override
-    public <U> CompletionStage<U> handleAsync(final BiFunction<? super T, Throwable, ? extends U> fn) {
-        return this.stage.handleAsync(fn);
+    public <U> CloseableCompletionStage<U> handleAsync(final BiFunction<? super T, Throwable, ? extends U> fn) {
+        return derive(this.stage.handleAsync(fn));
     }
 
     @Override
-    public <U> CompletionStage<U> handleAsync(final BiFunction<? super T, Throwable, ? extends U> fn,
+    public <U> CloseableCompletionStage<U> handleAsync(final BiFunction<? super T, Throwable, ? extends U> fn,
             final Executor executor) {
-        return this.stage.handleAsync(fn, executor);
+        return derive(this.stage.handleAsync(fn, executor));
     }
 
     @Override
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * A closeable publisher of a stream of values, the streaming counterpart of
+ * {@link CloseableCompletionStage}.
+ * <p>
+ * The nested interfaces follow the contract of {@code java.util.concurrent.Flow}
+ * and the Reactive Streams specification: the subscriber signals demand using
+ * {@link Subscription#request(long)}, and the publisher never emits more values
+ * than requested. As this project targets Java 8, the interfaces are defined
+ * here, but they map one to one to {@code Flow.Publisher},
+ * {@code Flow.Subscriber} and {@code Flow.Subscription}, so that adapting them
+ * only requires a few lambdas.
+ * <p>
+ * Closing the publisher cancels all active subscriptions, which closes or
+ * cancels a pending request to the source, and fails their subscribers with a
+ * {@link java.util.concurrent.CancellationException}.
+ *
+ * @param <T>
+ *            the type of the values
+ */
+@NonNullByDefault
+public interface CloseablePublisher<T> extends AutoCloseable {
+
+    /**
+     * A subscription of a single subscriber to a publisher.
+     */
+    public interface Subscription {
+        /**
+         * Request more values.
+         *
+         * @param n
+         *            the number of additional values, must be positive
+         */
+        public void request(long n);
+
+        /**
+         * Cancel the subscription.
+         * <p>
+         * The publisher will eventually stop emitting signals.
+         */
+        public void cancel();
+    }
+
+    /**
+     * A receiver of values.
+     *
+     * @param <T>
+     *            the type of the values
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called once, before any other signal.
+         *
+         * @param subscription
+         *            the new subscription
+         */
+        public void onSubscribe(Subscription subscription);
+
+        /**
+         * Called for each value, not more often than requested.
+         *
+         * @param item
+         *            the value
+         */
+        public void onNext(T item);
+
+        /**
+         * Called once, when the stream failed. No other signals follow.
+         *
+         * @param error
+         *            the error
+         */
+        public void onError(Throwable error);
+
+        /**
+         * Called once, when the stream completed. No other signals follow.
+         */
+        public void onComplete();
+    }
+
+    /**
+     * Subscribe to the publisher.
+     *
+     * @param subscriber
+     *            the subscriber
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+
+    /**
+     * Close the publisher, cancelling all active subscriptions.
+     * <p>
+     * Active subscribers receive a single
+     * {@link java.util.concurrent.CancellationException} as terminal signal.
+     * <p>
+     * Subscribing to a closed publisher fails the subscriber with an
+     * {@link IllegalStateException}.
+     */
+    @Override
+    public void close();
+
+    /**
+     * Get the first value.
+     * <p>
+     * Subscribes to the publisher, requesting a single value. Once the value
+     * was received, the subscription gets cancelled. If the stream completes
+     * without a value, the result fails with a {@link NoSuchElementException}.
+     * Closing the result cancels the subscription.
+     *
+     * @return the future completing with the first value
+     */
+    public default CloseableCompletableFuture<T> first() {
+        return PullPublisher.first(this);
+    }
+
+    /**
+     * Create a new publisher, pulling values from a source.
+     * <p>
+     * For each value, the source gets called once. The source returns a stage,
+     * completing with the next value, or with {@link Optional#empty()} to
+     * signal the end of the stream. A failed stage fails the stream. The source
+     * is only called when the subscriber requested more values, and only after
+     * the previous stage completed. So the source does not need to be thread
+     * safe. Cancelling the subscription closes the pending stage, if it is a
+     * {@link CloseableCompletionStage}, or cancels it otherwise.
+     * <p>
+     * As the source is stateful, the publisher only supports a single
+     * subscriber. Additional subscribers fail with an
+     * {@link IllegalStateException}.
+     *
+     * @param source
+     *            the source to pull values from
+     * @param <T>
+     *            the type of the values
+     * @return the new publisher, never returns {@code null}
+     */
+    public static <T> CloseablePublisher<T> of(final Supplier<? extends CompletionStage<Optional<T>>> source) {
+        Objects.requireNonNull(source);
+
+        return new PullPublisher<>(source);
+    }
+
+    /**
+     * Create a new publisher, emitting the result of a single stage.
+     * <p>
+     * A stage completing with {@code null} results in an empty stream.
+     * Cancelling the subscription, before the stage completed, closes the
+     * stage, if it is a {@link CloseableCompletionStage}, or cancels it
+     * otherwise.
+     *
+     * @param stage
+     *            the stage providing the value
+     * @param <T>
+     *            the type of the values
+     * @return the new publisher, never returns {@code null}
+     */
+    public static <T> CloseablePublisher<T> fromStage(final CompletionStage<? extends T> stage) {
+        Objects.requireNonNull(stage);
+
+        return new PullPublisher<>(PullPublisher.single(stage));
+    }
+}
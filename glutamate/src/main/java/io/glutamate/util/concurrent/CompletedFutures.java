@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Shared, pre-completed future instances for common values.
+ * <p>
+ * Sharing instances is only safe as long as nobody can change their outcome.
+ * Completing an already completed future is a no-op anyway, but obtruding a
+ * new value is not. So these instances reject all attempts to obtrude a value.
+ */
+final class CompletedFutures {
+
+    private static final class ImmutableFuture<T> extends CompletableFuture<T> {
+
+        private ImmutableFuture(final T value) {
+            super.complete(value);
+        }
+
+        @Override
+        public boolean complete(final T value) {
+            return false;
+        }
+
+        @Override
+        public boolean completeExceptionally(final Throwable ex) {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public void obtrudeValue(final T value) {
+            throw new UnsupportedOperationException("Shared future instances cannot be changed");
+        }
+
+        @Override
+        public void obtrudeException(final Throwable ex) {
+            throw new UnsupportedOperationException("Shared future instances cannot be changed");
+        }
+    }
+
+    private static final class ImmutableCloseableFuture<T> extends CloseableCompletableFuture<T> {
+
+        private ImmutableCloseableFuture(final T value) {
+            super.complete(value);
+            markClosed();
+        }
+
+        @Override
+        public boolean complete(final T value) {
+            return false;
+        }
+
+        @Override
+        public boolean completeExceptionally(final Throwable ex) {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public void obtrudeValue(final T value) {
+            throw new UnsupportedOperationException("Shared future instances cannot be changed");
+        }
+
+        @Override
+        public void obtrudeException(final Throwable ex) {
+            throw new UnsupportedOperationException("Shared future instances cannot be changed");
+        }
+    }
+
+    private static final int LOW = -128;
+    private static final int HIGH = 127;
+    private static final int SIZE = HIGH - LOW + 1;
+
+    private static final CompletableFuture<?> NULL = new ImmutableFuture<>(null);
+    private static final CompletableFuture<?> TRUE = new ImmutableFuture<>(Boolean.TRUE);
+    private static final CompletableFuture<?> FALSE = new ImmutableFuture<>(Boolean.FALSE);
+    private static final CompletableFuture<?> EMPTY = new ImmutableFuture<>(Optional.empty());
+    private static final CompletableFuture<?>[] INTEGERS = new CompletableFuture<?>[SIZE];
+
+    private static final CloseableCompletableFuture<?> CLOSEABLE_NULL = new ImmutableCloseableFuture<>(null);
+    private static final CloseableCompletableFuture<?> CLOSEABLE_TRUE = new ImmutableCloseableFuture<>(Boolean.TRUE);
+    private static final CloseableCompletableFuture<?> CLOSEABLE_FALSE = new ImmutableCloseableFuture<>(
+            Boolean.FALSE);
+    private static final CloseableCompletableFuture<?> CLOSEABLE_EMPTY = new ImmutableCloseableFuture<>(
+            Optional.empty());
+    private static final CloseableCompletableFuture<?>[] CLOSEABLE_INTEGERS = new CloseableCompletableFuture<?>[SIZE];
+
+    static {
+        for (int i = LOW; i <= HIGH; i++) {
+            INTEGERS[i - LOW] = new ImmutableFuture<>(Integer.valueOf(i));
+            CLOSEABLE_INTEGERS[i - LOW] = new ImmutableCloseableFuture<>(Integer.valueOf(i));
+        }
+    }
+
+    private CompletedFutures() {
+    }
+
+    /**
+     * Get a shared, succeeded future.
+     *
+     * @param value
+     *            the value of the future
+     * @return the shared instance, or {@code null} if there is no shared
+     *         instance for this value
+     */
+    @SuppressWarnings("unchecked")
+    static <T> @Nullable CompletableFuture<T> lookup(@Nullable final T value) {
+        return (CompletableFuture<T>) find(value, NULL, TRUE, FALSE, EMPTY, INTEGERS);
+    }
+
+    /**
+     * Get a shared, succeeded and closed future.
+     *
+     * @param value
+     *            the value of the future
+     * @return the shared instance, or {@code null} if there is no shared
+     *         instance for this value
+     */
+    @SuppressWarnings("unchecked")
+    static <T> @Nullable CloseableCompletableFuture<T> lookupCloseable(@Nullable final T value) {
+        return (CloseableCompletableFuture<T>) find(value, CLOSEABLE_NULL, CLOSEABLE_TRUE, CLOSEABLE_FALSE,
+                CLOSEABLE_EMPTY, CLOSEABLE_INTEGERS);
+    }
+
+    private static @Nullable CompletableFuture<?> find(@Nullable final Object value,
+            final CompletableFuture<?> nullValue, final CompletableFuture<?> trueValue, final CompletableFuture<?> falseValue,
+            final CompletableFuture<?> emptyValue, final CompletableFuture<?>[] integers) {
+
+        if (value == null) {
+            return nullValue;
+        }
+
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? trueValue : falseValue;
+        }
+
+        if (value instanceof Integer) {
+            final int i = (Integer) value;
+            if (i >= LOW && i <= HIGH) {
+                return integers[i - LOW];
+            }
+            return null;
+        }
+
+        if (value instanceof Optional && !((Optional<?>) value).isPresent()) {
+            return emptyValue;
+        }
+
+        return null;
+    }
+}
@@ -10,10 +10,29 @@
  *******************************************************************************/
 package io.glutamate.util.concurrent;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 
+import io.glutamate.time.WheelTimer;
+
 /**
  * Helpers for working with all kind of "futures".
  */
@@ -27,15 +46,22 @@ public final class Futures {
      * Create a new, completed, succeeded future.
      * <p>
      * This method is here for symmetry with {@link Futures#failed(Throwable)} and
-     * simply calls {@link CompletableFuture#completedFuture(Object)}.
+     * behaves like {@link CompletableFuture#completedFuture(Object)}. However, for
+     * common values, like {@code null}, {@link Boolean}s, small {@link Integer}s
+     * and {@link java.util.Optional#empty()}, a shared instance is returned.
+     * Shared instances reject attempts to obtrude a different outcome.
      *
      * @param value
      *            The value of success
      * @param <T>
      *            the future type
-     * @return A new, completed, succeeded future
+     * @return A completed, succeeded future
      */
     public static <T> CompletableFuture<T> succeeded(final T value) {
+        final CompletableFuture<T> shared = CompletedFutures.lookup(value);
+        if (shared != null) {
+            return shared;
+        }
         return CompletableFuture.completedFuture(value);
     }
 
@@ -59,4 +85,325 @@ public final class Futures {
         return result;
 
     }
+
+    /**
+     * Create a future which completes with the first successful result of the
+     * provided stages.
+     * <p>
+     * Once the result future is completed, in any way, all other stages will be
+     * closed, in case they are {@link CloseableCompletionStage}s, or cancelled
+     * otherwise. This also happens when the result future gets cancelled.
+     * <p>
+     * If all stages fail, the result future fails with the error of the first
+     * failed stage, adding all other errors as suppressed exceptions. If the
+     * collection of stages is empty, the result fails with a
+     * {@link NoSuchElementException}.
+     *
+     * @param stages
+     *            the stages to race
+     * @param <T>
+     *            the type of the result
+     * @return A new future, completing with the first successful result
+     */
+    public static <T> CompletableFuture<T> firstSuccessful(
+            final Collection<? extends CompletionStage<? extends T>> stages) {
+
+        Objects.requireNonNull(stages);
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        if (stages.isEmpty()) {
+            result.completeExceptionally(new NoSuchElementException("No stages to wait for"));
+            return result;
+        }
+
+        final List<CompletionStage<? extends T>> candidates = new ArrayList<>(stages);
+        final AtomicReference<CompletionStage<? extends T>> winner = new AtomicReference<>();
+        final AtomicInteger remaining = new AtomicInteger(candidates.size());
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+        result.whenComplete((value, error) -> {
+            final CompletionStage<? extends T> won = winner.get();
+            for (final CompletionStage<? extends T> candidate : candidates) {
+                if (candidate != won) {
+                    cancel(candidate);
+                }
+            }
+        });
+
+        for (final CompletionStage<? extends T> candidate : candidates) {
+            candidate.whenComplete((value, error) -> {
+
+                if (error == null) {
+                    if (winner.compareAndSet(null, candidate)) {
+                        result.complete(value);
+                    }
+                    return;
+                }
+
+                errors.add(unwrap(error));
+
+                if (remaining.decrementAndGet() == 0) {
+                    final Throwable first = errors.poll();
+                    for (final Throwable e : errors) {
+                        if (e != first) {
+                            first.addSuppressed(e);
+                        }
+                    }
+                    result.completeExceptionally(first);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Create a future which fails when the provided stage does not complete in
+     * time.
+     * <p>
+     * The result future completes with the outcome of the provided stage. If the
+     * stage did not complete within the provided duration, then the result future
+     * fails with a {@link TimeoutException}. The provided stage is not cancelled
+     * in this case.
+     * <p>
+     * The timeout is tracked by the {@link WheelTimer#shared() shared timer} and
+     * is cancelled as soon as the result future completes. No thread is blocked
+     * while waiting. As the timeout gets executed on the timer thread, actions
+     * depending on the result should be executed asynchronously if they are
+     * expected to block.
+     *
+     * @param stage
+     *            the stage to wait for
+     * @param timeout
+     *            the duration after which the result future fails
+     * @param <T>
+     *            the type of the result
+     * @return A new future, completing with the result of the stage or a timeout
+     */
+    public static <T> CompletableFuture<T> withTimeout(final CompletionStage<T> stage, final Duration timeout) {
+        Objects.requireNonNull(stage);
+        Objects.requireNonNull(timeout);
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        final WheelTimer.Timeout handle = WheelTimer.shared()
+                .schedule(() -> result.completeExceptionally(new TimeoutException()), timeout);
+        result.whenComplete((value, error) -> handle.cancel());
+
+        stage.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Create a future which completes after the provided delay.
+     * <p>
+     * The delay is tracked by the {@link WheelTimer#shared() shared timer}.
+     * Cancelling the future will also cancel the timer task.
+     *
+     * @param delay
+     *            the delay after which the future completes
+     * @return A new future, completing after the delay
+     */
+    public static CompletableFuture<Void> delayed(final Duration delay) {
+        Objects.requireNonNull(delay);
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        final WheelTimer.Timeout handle = WheelTimer.shared().schedule(() -> result.complete(null), delay);
+        result.whenComplete((value, error) -> handle.cancel());
+
+        return result;
+    }
+
+    /**
+     * Asynchronously map all elements of a source, with a limited number of
+     * operations in flight.
+     * <p>
+     * Elements are pulled lazily from the source iterator, and passed to the
+     * mapper function. No more than {@code maxInFlight} stages, returned by the
+     * mapper, will be pending at the same time. Once a stage completes, the next
+     * element will be pulled from the source. No thread is blocked while waiting
+     * for stages to complete.
+     * <p>
+     * Results are handed over to the consumer, either in the order of the source
+     * ({@code ordered} is {@code true}) or in the order of completion. In the
+     * ordered case, completed results waiting for their predecessors still count
+     * as being in flight. The source iterator and the consumer will never be
+     * called concurrently, but may be called from different threads.
+     * <p>
+     * The returned future completes when all elements got processed. It fails
+     * with the first error, reported by the source, the mapper, a stage or the
+     * consumer. In this case, no further elements are pulled from the source.
+     * Cancelling the returned future also stops pulling elements.
+     *
+     * @param source
+     *            the source of elements
+     * @param mapper
+     *            the asynchronous operation to perform for each element
+     * @param maxInFlight
+     *            the maximum number of pending operations, must be positive
+     * @param ordered
+     *            whether results should be consumed in the order of the source
+     * @param consumer
+     *            the consumer of the results
+     * @param <T>
+     *            the type of the source elements
+     * @param <R>
+     *            the type of the results
+     * @return A new future, tracking the overall operation
+     */
+    public static <T, R> CompletableFuture<Void> mapAsync(final Iterator<? extends T> source,
+            final Function<? super T, ? extends CompletionStage<? extends R>> mapper, final int maxInFlight,
+            final boolean ordered, final Consumer<? super R> consumer) {
+
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(mapper);
+        Objects.requireNonNull(consumer);
+
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("'maxInFlight' must be positive");
+        }
+
+        return new MapAsync<T, R>(source, mapper, maxInFlight, ordered, consumer).start();
+    }
+
+    /**
+     * Asynchronously map all elements of a source, with a limited number of
+     * operations in flight.
+     *
+     * @param source
+     *            the source of elements
+     * @param mapper
+     *            the asynchronous operation to perform for each element
+     * @param maxInFlight
+     *            the maximum number of pending operations, must be positive
+     * @param ordered
+     *            whether results should be consumed in the order of the source
+     * @param consumer
+     *            the consumer of the results
+     * @param <T>
+     *            the type of the source elements
+     * @param <R>
+     *            the type of the results
+     * @return A new future, tracking the overall operation
+     * @see #mapAsync(Iterator, Function, int, boolean, Consumer)
+     */
+    public static <T, R> CompletableFuture<Void> mapAsync(final Iterable<? extends T> source,
+            final Function<? super T, ? extends CompletionStage<? extends R>> mapper, final int maxInFlight,
+            final boolean ordered, final Consumer<? super R> consumer) {
+
+        Objects.requireNonNull(source);
+
+        return mapAsync(source.iterator(), mapper, maxInFlight, ordered, consumer);
+    }
+
+    /**
+     * Execute an operation as hedged request.
+     * <p>
+     * The operation is started once. If it did not complete successfully after
+     * the delay provided by the policy, an additional attempt is started, up to
+     * the maximum number of hedges of the policy. A failed attempt triggers the
+     * next attempt right away. The first successful attempt completes the
+     * result, all other attempts will be closed, in case they are a
+     * {@link CloseableCompletionStage}, or cancelled otherwise.
+     * <p>
+     * If all attempts fail, the result fails with the error of the first
+     * attempt, carrying the errors of the other attempts as suppressed
+     * exceptions. If the supplier throws, or returns {@code null}, instead of
+     * returning a stage, the result fails right away.
+     * <p>
+     * Closing the result stops starting new attempts and closes or cancels all
+     * pending attempts.
+     * <p>
+     * <strong>Note:</strong> The operation must be safe to execute multiple
+     * times.
+     *
+     * @param operation
+     *            the supplier starting a new attempt of the operation
+     * @param policy
+     *            the policy, which should be shared by all calls of the same
+     *            operation
+     * @param <T>
+     *            the type of the result
+     * @return the result of the first successful attempt
+     */
+    public static <T> CloseableCompletableFuture<T> hedged(
+            final Supplier<? extends CompletionStage<? extends T>> operation, final HedgePolicy policy) {
+        Objects.requireNonNull(operation);
+        Objects.requireNonNull(policy);
+
+        return new Hedged<T>(operation, policy).start();
+    }
+
+    /**
+     * Execute an operation, retrying it in case of errors.
+     * <p>
+     * Retries are scheduled on the {@link WheelTimer#shared() shared timer}, so
+     * no thread is blocked while waiting for the next attempt. The operation
+     * itself should not block either, but only initiate the attempt.
+     * <p>
+     * If the operation cannot be retried any more, because the maximum number of
+     * attempts is reached, the deadline would be exceeded, or the error is not
+     * considered retryable by the policy, the result fails with the error of the
+     * last attempt.
+     * <p>
+     * Closing the result aborts a pending retry and closes or cancels the
+     * current attempt.
+     *
+     * @param operation
+     *            the supplier starting a new attempt of the operation
+     * @param policy
+     *            the retry policy
+     * @param <T>
+     *            the type of the result
+     * @return the result of the first successful attempt
+     */
+    public static <T> CloseableCompletableFuture<T> retry(
+            final Supplier<? extends CompletionStage<? extends T>> operation, final RetryPolicy policy) {
+        Objects.requireNonNull(operation);
+        Objects.requireNonNull(policy);
+
+        return new Retry<T>(operation, policy).start();
+    }
+
+    /**
+     * Close or cancel a stage whose result is no longer of interest.
+     *
+     * @param stage
+     *            the stage to close or cancel
+     */
+    static void cancel(final CompletionStage<?> stage) {
+        if (stage instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) stage).close();
+            } catch (final Exception e) {
+                // nobody is interested in the outcome anymore
+            }
+        } else {
+            stage.toCompletableFuture().cancel(false);
+        }
+    }
+
+    /**
+     * Strip the {@link CompletionException} from errors reported by dependent
+     * stages.
+     *
+     * @param error
+     *            the error to unwrap
+     * @return the cause of the completion exception, or the error itself
+     */
+    static Throwable unwrap(final Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
 }
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import io.glutamate.time.Durations;
+
+/**
+ * A policy for hedged requests.
+ * <p>
+ * The policy tracks the latencies of successful attempts and derives the delay
+ * after which a hedged attempt is started from a percentile of these
+ * latencies. Until enough latencies have been recorded, the initial delay is
+ * used.
+ * <p>
+ * A policy instance is intended to be shared by all calls of the same
+ * operation, so that it can learn the latency of that operation.
+ *
+ * @see Futures#hedged(Supplier, HedgePolicy)
+ */
+@NonNullByDefault
+public final class HedgePolicy {
+
+    private static final long MIN_SAMPLES = 20;
+    private static final long WINDOW = 1_000;
+
+    private final int maxHedges;
+    private final double percentile;
+    private final long initialDelay;
+
+    private final LatencyHistogram histogram = new LatencyHistogram(WINDOW);
+
+    private HedgePolicy(final int maxHedges, final double percentile, final long initialDelay) {
+        this.maxHedges = maxHedges;
+        this.percentile = percentile;
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Create a new policy.
+     *
+     * @param maxHedges
+     *            the maximum number of additional attempts, must not be negative
+     * @param percentile
+     *            the percentile of recent latencies after which a hedged attempt
+     *            is started, e.g. {@code 0.95}
+     * @param initialDelay
+     *            the delay to use until enough latencies have been recorded
+     * @return the new policy, never returns {@code null}
+     */
+    public static HedgePolicy of(final int maxHedges, final double percentile, final Duration initialDelay) {
+        Objects.requireNonNull(initialDelay);
+
+        if (maxHedges < 0) {
+            throw new IllegalArgumentException("'maxHedges' must not be negative");
+        }
+        if (percentile <= 0.0 || percentile > 1.0) {
+            throw new IllegalArgumentException("'percentile' must be greater than 0 and not greater than 1");
+        }
+
+        return new HedgePolicy(maxHedges, percentile, Durations.toNanos(initialDelay.abs()));
+    }
+
+    /**
+     * Get the maximum number of hedged attempts.
+     *
+     * @return the maximum number of attempts, in addition to the first one
+     */
+    public int getMaxHedges() {
+        return this.maxHedges;
+    }
+
+    /**
+     * Get the current delay after which a hedged attempt is started.
+     *
+     * @return the current delay, never returns {@code null}
+     */
+    public Duration getDelay() {
+        return Duration.ofNanos(getDelayNanos());
+    }
+
+    long getDelayNanos() {
+        if (this.histogram.getCount() < MIN_SAMPLES) {
+            return this.initialDelay;
+        }
+        return this.histogram.percentile(this.percentile);
+    }
+
+    void record(final long nanos) {
+        this.histogram.record(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[HedgePolicy: maxHedges %s, percentile %s, delay %s]", this.maxHedges, this.percentile,
+                getDelay());
+    }
+}
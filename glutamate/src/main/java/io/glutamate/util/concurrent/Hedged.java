@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.glutamate.time.WheelTimer;
+
+/**
+ * Implementation of {@link Futures#hedged(Supplier, HedgePolicy)}.
+ */
+final class Hedged<T> {
+
+    private final Supplier<? extends CompletionStage<? extends T>> supplier;
+    private final HedgePolicy policy;
+    private final int maxAttempts;
+
+    private final CloseableCompletableFuture<T> result = new CloseableCompletableFuture<>();
+
+    // guarded by "this"
+
+    private final List<CompletionStage<? extends T>> attempts = new ArrayList<>();
+    private final LinkedList<Throwable> errors = new LinkedList<>();
+    private int launched;
+    private WheelTimer.@Nullable Timeout timeout;
+
+    Hedged(final Supplier<? extends CompletionStage<? extends T>> supplier, final HedgePolicy policy) {
+        this.supplier = supplier;
+        this.policy = policy;
+        this.maxAttempts = 1 + policy.getMaxHedges();
+    }
+
+    CloseableCompletableFuture<T> start() {
+        this.result.whenComplete((value, error) -> cancelAll());
+        this.result.whenClosed(() -> this.result.cancel(false));
+
+        launch();
+
+        return this.result;
+    }
+
+    private void launch() {
+
+        synchronized (this) {
+            if (this.result.isDone() || this.launched >= this.maxAttempts) {
+                return;
+            }
+
+            // reserve the slot before releasing the lock, the timer and a failed attempt may race
+
+            this.launched++;
+
+            if (this.timeout != null) {
+                this.timeout.cancel();
+                this.timeout = null;
+            }
+            if (this.launched < this.maxAttempts) {
+                this.timeout = WheelTimer.shared().schedule(this::launch,
+                        Duration.ofNanos(this.policy.getDelayNanos()));
+            }
+        }
+
+        final long start = System.nanoTime();
+
+        final @Nullable CompletionStage<? extends T> stage;
+        try {
+            stage = this.supplier.get();
+        } catch (final Exception e) {
+            abort(e);
+            return;
+        }
+
+        if (stage == null) {
+            abort(new NullPointerException("Operation returned a null stage"));
+            return;
+        }
+
+        synchronized (this) {
+            this.attempts.add(stage);
+        }
+
+        if (this.result.isDone()) {
+            // closed while launching
+            Futures.cancel(stage);
+            return;
+        }
+
+        stage.whenComplete((value, error) -> {
+            if (error == null) {
+                this.policy.record(System.nanoTime() - start);
+                this.result.complete(value);
+            } else {
+                failed(Futures.unwrap(error));
+            }
+        });
+    }
+
+    /**
+     * Fail the result, as the supplier was unable to start an attempt.
+     */
+    private void abort(final Exception error) {
+        synchronized (this) {
+            // release the reserved slot, no attempt was started
+            this.launched--;
+            for (final Throwable e : this.errors) {
+                error.addSuppressed(e);
+            }
+        }
+
+        this.result.completeExceptionally(error);
+    }
+
+    private void failed(final Throwable error) {
+
+        final boolean retry;
+
+        synchronized (this) {
+            this.errors.add(error);
+            if (this.errors.size() < this.maxAttempts) {
+                // start the next attempt right away
+                retry = this.errors.size() >= this.launched;
+            } else {
+                final Throwable first = this.errors.pollFirst();
+                for (final Throwable e : this.errors) {
+                    if (e != first) {
+                        first.addSuppressed(e);
+                    }
+                }
+                this.result.completeExceptionally(first);
+                return;
+            }
+        }
+
+        if (retry) {
+            launch();
+        }
+    }
+
+    private void cancelAll() {
+        final List<CompletionStage<? extends T>> attempts;
+
+        synchronized (this) {
+            if (this.timeout != null) {
+                this.timeout.cancel();
+                this.timeout = null;
+            }
+            attempts = new ArrayList<>(this.attempts);
+        }
+
+        for (final CompletionStage<? extends T> attempt : attempts) {
+            if (!attempt.toCompletableFuture().isDone()) {
+                Futures.cancel(attempt);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * An executor preserving the order of tasks with the same key.
+ * <p>
+ * Keys are hashed onto a fixed number of lanes. Each lane is a
+ * {@link SerialExecutor} on top of a shared executor. So tasks with the same
+ * key are executed in the order they were submitted, and never concurrently,
+ * while tasks with different keys may run in parallel. Keys sharing a lane
+ * are serialized as well, so the number of lanes should be well above the
+ * number of threads of the underlying executor.
+ * <p>
+ * This allows to order the tasks of a large number of entities, without
+ * creating an executor for each entity.
+ *
+ * @param <K>
+ *            the type of the key
+ */
+@NonNullByDefault
+public final class KeyedExecutor<K> {
+
+    private static final class Lane {
+
+        private final SerialExecutor executor;
+        private final AtomicInteger depth = new AtomicInteger();
+
+        private Lane(final SerialExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void execute(final Runnable task) {
+            this.depth.incrementAndGet();
+            try {
+                this.executor.execute(() -> {
+                    this.depth.decrementAndGet();
+                    task.run();
+                });
+            } catch (final RejectedExecutionException e) {
+                this.depth.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private final Lane[] lanes;
+
+    private KeyedExecutor(final Executor executor, final int lanes) {
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane(SerialExecutor.of(executor));
+        }
+    }
+
+    /**
+     * Create a new keyed executor.
+     *
+     * @param executor
+     *            the executor to run tasks on
+     * @param lanes
+     *            the number of lanes, must be positive
+     * @param <K>
+     *            the type of the key
+     * @return the new executor, never returns {@code null}
+     */
+    public static <K> KeyedExecutor<K> of(final Executor executor, final int lanes) {
+        Objects.requireNonNull(executor);
+
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("'lanes' must be positive");
+        }
+
+        return new KeyedExecutor<>(executor, lanes);
+    }
+
+    private Lane lane(final K key) {
+        final int h = key.hashCode();
+        return this.lanes[Math.floorMod(h ^ h >>> 16, this.lanes.length)];
+    }
+
+    /**
+     * Get an executor for a key.
+     * <p>
+     * The returned executor can be used as executor of the {@code *Async}
+     * methods of {@link java.util.concurrent.CompletionStage}.
+     *
+     * @param key
+     *            the key
+     * @return the executor running tasks in the lane of the key
+     */
+    public Executor executor(final K key) {
+        Objects.requireNonNull(key);
+
+        return lane(key)::execute;
+    }
+
+    /**
+     * Execute a task.
+     *
+     * @param key
+     *            the key of the task
+     * @param task
+     *            the task to execute
+     */
+    public void execute(final K key, final Runnable task) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(task);
+
+        lane(key).execute(task);
+    }
+
+    /**
+     * Submit a task.
+     * <p>
+     * Closing the returned future, before the task was started, prevents the
+     * execution of the task. Closing it later has no effect on the task. The
+     * cancelled task still counts towards the queue depth of its lane, until
+     * its turn has come.
+     *
+     * @param key
+     *            the key of the task
+     * @param task
+     *            the task to execute
+     * @param <T>
+     *            the type of the result
+     * @return the future, completing with the result of the task
+     */
+    public <T> CloseableCompletableFuture<T> submit(final K key, final Callable<? extends T> task) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(task);
+
+        final CloseableCompletableFuture<T> result = new CloseableCompletableFuture<>();
+        result.whenClosed(() -> result.cancel(false));
+
+        lane(key).execute(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(task.call());
+            } catch (final Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Get the number of lanes.
+     *
+     * @return the number of lanes
+     */
+    public int getLaneCount() {
+        return this.lanes.length;
+    }
+
+    /**
+     * Get the number of queued tasks per lane.
+     *
+     * @return a new array, holding the number of tasks waiting in each lane
+     */
+    public int[] getQueueDepths() {
+        final int[] result = new int[this.lanes.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.lanes[i].depth.get();
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of queued tasks of all lanes.
+     *
+     * @return the number of waiting tasks
+     */
+    public long getQueueDepth() {
+        long result = 0;
+        for (final Lane lane : this.lanes) {
+            result += lane.depth.get();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[KeyedExecutor: lanes %s, queued %s]", this.lanes.length, getQueueDepth());
+    }
+}
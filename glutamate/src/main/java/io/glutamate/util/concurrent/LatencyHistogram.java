@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, log-linear histogram of recent latencies.
+ * <p>
+ * Values are recorded in buckets, four buckets per power of two, so the
+ * relative error of a reported value is at most 25%. Once the number of
+ * recorded values reaches the window size, all buckets are halved. So older
+ * values lose their weight over time.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int SIZE = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicBoolean decaying = new AtomicBoolean();
+    private final long window;
+
+    LatencyHistogram(final long window) {
+        this.window = window;
+    }
+
+    void record(final long value) {
+        this.buckets.incrementAndGet(index(Math.max(0, value)));
+
+        if (this.count.incrementAndGet() >= this.window && this.decaying.compareAndSet(false, true)) {
+            try {
+                long sum = 0;
+                for (int i = 0; i < SIZE; i++) {
+                    sum += this.buckets.updateAndGet(i, x -> x >>> 1);
+                }
+                this.count.set(sum);
+            } finally {
+                this.decaying.set(false);
+            }
+        }
+    }
+
+    long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Get the value at a percentile.
+     *
+     * @param percentile
+     *            the percentile, between 0 and 1
+     * @return the upper bound of the bucket containing the percentile, or
+     *         {@code -1} if no values got recorded
+     */
+    long percentile(final double percentile) {
+        final long[] snapshot = new long[SIZE];
+        long total = 0;
+        for (int i = 0; i < SIZE; i++) {
+            snapshot[i] = this.buckets.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0) {
+            return -1;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(total * percentile));
+
+        long current = 0;
+        for (int i = 0; i < SIZE; i++) {
+            current += snapshot[i];
+            if (current >= target) {
+                return upperBound(i);
+            }
+        }
+
+        return upperBound(SIZE - 1);
+    }
+
+    static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        final long upper = lower + (1L << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
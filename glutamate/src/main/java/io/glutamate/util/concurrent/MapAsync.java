@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Implementation of
+ * {@link Futures#mapAsync(Iterator, Function, int, boolean, Consumer)}.
+ * <p>
+ * All state, except the queue of completed futures, is only accessed while
+ * holding the "work in progress" counter. Completion callbacks only signal the
+ * drain loop, so that the source iterator and the consumer are never called
+ * concurrently and synchronously completing stages don't grow the stack.
+ */
+final class MapAsync<T, R> {
+
+    private final Iterator<? extends T> source;
+    private final Function<? super T, ? extends CompletionStage<? extends R>> mapper;
+    private final int maxInFlight;
+    private final boolean ordered;
+    private final Consumer<? super R> consumer;
+
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final ArrayDeque<CompletableFuture<? extends R>> window = new ArrayDeque<>();
+    private final Queue<CompletableFuture<? extends R>> completed = new ConcurrentLinkedQueue<>();
+
+    private int inFlight;
+    private boolean exhausted;
+
+    MapAsync(final Iterator<? extends T> source,
+            final Function<? super T, ? extends CompletionStage<? extends R>> mapper,
+            final int maxInFlight, final boolean ordered, final Consumer<? super R> consumer) {
+        this.source = source;
+        this.mapper = mapper;
+        this.maxInFlight = maxInFlight;
+        this.ordered = ordered;
+        this.consumer = consumer;
+    }
+
+    CompletableFuture<Void> start() {
+        drain();
+        return this.result;
+    }
+
+    private void drain() {
+        if (this.wip.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+
+            try {
+                emit();
+                launch();
+            } catch (final Throwable e) {
+                this.result.completeExceptionally(e);
+            }
+
+            if (this.exhausted && this.inFlight == 0) {
+                this.result.complete(null);
+            }
+
+            missed = this.wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit() {
+        if (this.ordered) {
+            while (!this.window.isEmpty() && this.window.peekFirst().isDone()) {
+                this.inFlight--;
+                accept(this.window.pollFirst());
+            }
+        } else {
+            CompletableFuture<? extends R> future;
+            while ((future = this.completed.poll()) != null) {
+                this.inFlight--;
+                accept(future);
+            }
+        }
+    }
+
+    private void accept(final CompletableFuture<? extends R> future) {
+        if (this.result.isDone()) {
+            return;
+        }
+
+        final R value;
+        try {
+            value = future.join();
+        } catch (final CompletionException e) {
+            this.result.completeExceptionally(Futures.unwrap(e));
+            return;
+        }
+
+        this.consumer.accept(value);
+    }
+
+    private void launch() {
+        while (!this.result.isDone() && !this.exhausted && this.inFlight < this.maxInFlight) {
+
+            if (!this.source.hasNext()) {
+                this.exhausted = true;
+                return;
+            }
+
+            final CompletableFuture<? extends R> future = this.mapper.apply(this.source.next())
+                    .toCompletableFuture();
+
+            this.inFlight++;
+            if (this.ordered) {
+                this.window.add(future);
+            }
+
+            future.whenComplete((value, error) -> {
+                if (!this.ordered) {
+                    this.completed.add(future);
+                }
+                drain();
+            });
+        }
+    }
+}
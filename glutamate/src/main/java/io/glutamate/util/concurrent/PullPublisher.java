@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Implementation of {@link CloseablePublisher#of(Supplier)}.
+ */
+final class PullPublisher<T> implements CloseablePublisher<T> {
+
+    private static final CloseablePublisher.Subscription EMPTY = new CloseablePublisher.Subscription() {
+
+        @Override
+        public void request(final long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final class PullSubscription implements CloseablePublisher.Subscription {
+
+        private final Subscriber<? super T> subscriber;
+
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile boolean pulling;
+        private volatile boolean done;
+
+        /**
+         * An error, which still needs to be signaled by the drain loop.
+         */
+        private volatile @Nullable Throwable failure;
+
+        private volatile @Nullable CompletionStage<Optional<T>> current;
+
+        private PullSubscription(final Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                // don't signal from within "request", leave it to the drain loop
+                fail(new IllegalArgumentException("Requested amount must be positive"));
+                return;
+            }
+
+            // saturate at Long.MAX_VALUE, which means unbounded
+            this.demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+
+            final CompletionStage<Optional<T>> current = this.current;
+            if (current != null) {
+                Futures.cancel(current);
+            }
+
+            PullPublisher.this.active.compareAndSet(this, null);
+        }
+
+        /**
+         * Cancel the subscription, as the publisher got closed.
+         * <p>
+         * Unlike cancelling by the subscriber, this fails the subscriber with a
+         * {@link CancellationException}, once a pending pull has finished.
+         */
+        private void close() {
+            fail(new CancellationException("Publisher was closed"));
+        }
+
+        /**
+         * Cancel the subscription and fail the subscriber, once a pending pull
+         * has finished.
+         * <p>
+         * Only the first error gets signaled.
+         */
+        private void fail(final Throwable error) {
+            if (this.failure == null) {
+                this.failure = error;
+            }
+            cancel();
+            drain();
+        }
+
+        private void drain() {
+            if (this.wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            try {
+                do {
+                    final @Nullable Throwable failure = this.failure;
+                    if (failure != null && !this.done && !this.pulling) {
+                        this.done = true;
+                        this.subscriber.onError(failure);
+                    } else if (!this.cancelled && !this.done && !this.pulling && this.demand.get() > 0) {
+                        this.pulling = true;
+                        pull();
+                    }
+                    missed = this.wip.addAndGet(-missed);
+                } while (missed != 0);
+            } finally {
+                if (missed != 0) {
+                    // the subscriber failed, don't block later calls
+                    this.wip.set(0);
+                }
+            }
+        }
+
+        private void pull() {
+            @Nullable
+            CompletionStage<Optional<T>> stage;
+            try {
+                stage = PullPublisher.this.source.get();
+            } catch (final Throwable e) {
+                stage = Futures.failed(e);
+            }
+            if (stage == null) {
+                stage = Futures.failed(new NullPointerException("Source returned a null stage"));
+            }
+
+            this.current = stage;
+            if (this.cancelled) {
+                Futures.cancel(stage);
+            }
+
+            stage.whenComplete(this::pulled);
+        }
+
+        private void pulled(final @Nullable Optional<T> value, final @Nullable Throwable error) {
+            this.current = null;
+
+            try {
+                if (this.cancelled) {
+                    // a pending error is signaled by the drain loop
+                } else if (error != null) {
+                    this.done = true;
+                    cancel();
+                    this.subscriber.onError(Futures.unwrap(error));
+                } else if (value == null || !value.isPresent()) {
+                    this.done = true;
+                    cancel();
+                    this.subscriber.onComplete();
+                } else {
+                    if (this.demand.get() != Long.MAX_VALUE) {
+                        this.demand.decrementAndGet();
+                    }
+                    next(value.get());
+                }
+            } finally {
+                // happens-before the next pull, through the wip counter
+                this.pulling = false;
+                drain();
+            }
+        }
+
+        private void next(final T item) {
+            try {
+                this.subscriber.onNext(item);
+            } catch (final Throwable e) {
+                // the subscriber is broken, stop pulling and report the error
+                fail(e);
+            }
+        }
+    }
+
+    private final Supplier<? extends CompletionStage<Optional<T>>> source;
+
+    private final AtomicReference<@Nullable PullSubscription> active = new AtomicReference<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile boolean closed;
+
+    PullPublisher(final Supplier<? extends CompletionStage<Optional<T>>> source) {
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+
+        if (this.closed) {
+            subscriber.onSubscribe(EMPTY);
+            subscriber.onError(new IllegalStateException("Publisher is closed"));
+            return;
+        }
+
+        if (!this.subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(EMPTY);
+            subscriber.onError(new IllegalStateException("Publisher only supports a single subscriber"));
+            return;
+        }
+
+        final PullSubscription subscription = new PullSubscription(subscriber);
+        this.active.set(subscription);
+
+        subscriber.onSubscribe(subscription);
+
+        if (this.closed) {
+            // closed while subscribing
+            subscription.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+
+        final PullSubscription subscription = this.active.getAndSet(null);
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+
+    static <T> Supplier<CompletionStage<Optional<T>>> single(final CompletionStage<? extends T> stage) {
+        final AtomicBoolean taken = new AtomicBoolean();
+
+        return () -> {
+            if (taken.getAndSet(true)) {
+                return Futures.succeeded(Optional.empty());
+            }
+            return CloseableCompletionStage.of(stage.thenApply(Optional::ofNullable),
+                    () -> Futures.cancel(stage));
+        };
+    }
+
+    static <T> CloseableCompletableFuture<T> first(final CloseablePublisher<T> publisher) {
+        final CloseableCompletableFuture<T> result = new CloseableCompletableFuture<>();
+
+        publisher.subscribe(new Subscriber<T>() {
+
+            private CloseablePublisher.Subscription subscription = EMPTY;
+
+            @Override
+            public void onSubscribe(final CloseablePublisher.Subscription subscription) {
+                this.subscription = subscription;
+                result.whenClosed(subscription::cancel);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(final T item) {
+                this.subscription.cancel();
+                result.complete(item);
+            }
+
+            @Override
+            public void onError(final Throwable error) {
+                result.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                result.completeExceptionally(new NoSuchElementException("Stream completed without a value"));
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[PullPublisher: subscribed %s, closed %s]", this.subscribed.get(), this.closed);
+    }
+}
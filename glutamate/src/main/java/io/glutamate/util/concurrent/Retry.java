@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.glutamate.time.WheelTimer;
+
+/**
+ * Implementation of {@link Futures#retry(Supplier, RetryPolicy)}.
+ */
+final class Retry<T> {
+
+    private final Supplier<? extends CompletionStage<? extends T>> operation;
+    private final RetryPolicy policy;
+    private final long start = System.nanoTime();
+
+    private final CloseableCompletableFuture<T> result = new CloseableCompletableFuture<>();
+
+    // guarded by "this"
+
+    private int attempts;
+    private long delay;
+    private @Nullable CompletionStage<? extends T> current;
+    private WheelTimer.@Nullable Timeout timeout;
+
+    Retry(final Supplier<? extends CompletionStage<? extends T>> operation, final RetryPolicy policy) {
+        this.operation = operation;
+        this.policy = policy;
+    }
+
+    CloseableCompletableFuture<T> start() {
+        this.result.whenClosed(this::abort);
+
+        attempt();
+
+        return this.result;
+    }
+
+    private void attempt() {
+
+        synchronized (this) {
+            if (this.result.isDone()) {
+                return;
+            }
+            this.timeout = null;
+            this.attempts++;
+        }
+
+        @Nullable
+        CompletionStage<? extends T> stage;
+        try {
+            stage = this.operation.get();
+        } catch (final Exception e) {
+            stage = Futures.failed(e);
+        }
+
+        if (stage == null) {
+            stage = Futures.failed(new NullPointerException("Operation returned a null stage"));
+        }
+
+        synchronized (this) {
+            this.current = stage;
+        }
+
+        if (this.result.isDone()) {
+            // closed while starting the attempt
+            Futures.cancel(stage);
+            return;
+        }
+
+        stage.whenComplete((value, error) -> {
+            if (error == null) {
+                this.result.complete(value);
+            } else {
+                failed(Futures.unwrap(error));
+            }
+        });
+    }
+
+    private void failed(final Throwable error) {
+
+        synchronized (this) {
+            this.current = null;
+
+            if (this.result.isDone()) {
+                return;
+            }
+
+            if (this.attempts < this.policy.getMaxAttempts() && this.policy.shouldRetry(error)) {
+
+                this.delay = this.policy.nextDelay(this.delay);
+
+                final long deadline = this.policy.getDeadlineNanos();
+                if (deadline <= 0 || System.nanoTime() + this.delay - this.start < deadline) {
+                    this.timeout = WheelTimer.shared().schedule(this::attempt, Duration.ofNanos(this.delay));
+                    return;
+                }
+            }
+        }
+
+        this.result.completeExceptionally(error);
+    }
+
+    private void abort() {
+        final CompletionStage<? extends T> current;
+
+        synchronized (this) {
+            if (this.timeout != null) {
+                this.timeout.cancel();
+                this.timeout = null;
+            }
+            current = this.current;
+            this.current = null;
+        }
+
+        this.result.cancel(false);
+
+        if (current != null) {
+            Futures.cancel(current);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import io.glutamate.lang.Exceptions;
+import io.glutamate.time.Durations;
+
+/**
+ * A policy for retrying asynchronous operations.
+ * <p>
+ * Instances are immutable and can be shared. They are created using a
+ * {@link Builder}:
+ *
+ * <pre>
+ * RetryPolicy policy = RetryPolicy.builder()
+ *         .maxAttempts(5)
+ *         .exponentialBackoff(Duration.ofMillis(100), Duration.ofSeconds(5))
+ *         .retryOn(IOException.class::isInstance)
+ *         .build();
+ * </pre>
+ *
+ * @see Futures#retry(Supplier, RetryPolicy)
+ */
+@NonNullByDefault
+public final class RetryPolicy {
+
+    private static final int BACKOFF_FIXED = 0;
+    private static final int BACKOFF_EXPONENTIAL = 1;
+    private static final int BACKOFF_DECORRELATED_JITTER = 2;
+
+    /**
+     * A builder for {@link RetryPolicy} instances.
+     */
+    public static final class Builder {
+
+        private int maxAttempts = 3;
+        private int backoff = BACKOFF_FIXED;
+        private long initialDelay;
+        private long maxDelay;
+        private long deadline;
+        private Predicate<? super Throwable> retryOn = error -> true;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the maximum number of attempts, including the first one.
+         * <p>
+         * The default is three attempts.
+         *
+         * @param maxAttempts
+         *            the maximum number of attempts, must be positive
+         * @return this builder
+         */
+        public Builder maxAttempts(final int maxAttempts) {
+            if (maxAttempts <= 0) {
+                throw new IllegalArgumentException("'maxAttempts' must be positive");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Wait a fixed delay between two attempts.
+         * <p>
+         * This is the default, with a delay of zero.
+         *
+         * @param delay
+         *            the delay between two attempts
+         * @return this builder
+         */
+        public Builder fixedBackoff(final Duration delay) {
+            this.backoff = BACKOFF_FIXED;
+            this.initialDelay = this.maxDelay = Durations.toNanos(delay.abs());
+            return this;
+        }
+
+        /**
+         * Double the delay between two attempts, up to a maximum.
+         *
+         * @param initialDelay
+         *            the delay before the first retry
+         * @param maxDelay
+         *            the maximum delay
+         * @return this builder
+         */
+        public Builder exponentialBackoff(final Duration initialDelay, final Duration maxDelay) {
+            this.backoff = BACKOFF_EXPONENTIAL;
+            this.initialDelay = Durations.toNanos(initialDelay.abs());
+            this.maxDelay = Math.max(this.initialDelay, Durations.toNanos(maxDelay.abs()));
+            return this;
+        }
+
+        /**
+         * Use a randomized backoff, based on the previous delay.
+         * <p>
+         * Each delay is chosen randomly between the base delay and three times
+         * the previous delay, capped by the maximum delay. This spreads out
+         * retries of competing clients better than a plain exponential backoff.
+         *
+         * @param baseDelay
+         *            the minimum delay, and the delay before the first retry
+         * @param maxDelay
+         *            the maximum delay
+         * @return this builder
+         */
+        public Builder decorrelatedJitterBackoff(final Duration baseDelay, final Duration maxDelay) {
+            this.backoff = BACKOFF_DECORRELATED_JITTER;
+            this.initialDelay = Durations.toNanos(baseDelay.abs());
+            this.maxDelay = Math.max(this.initialDelay, Durations.toNanos(maxDelay.abs()));
+            return this;
+        }
+
+        /**
+         * Limit the overall time of all attempts.
+         * <p>
+         * No retry will be scheduled if it would start after the deadline. The
+         * deadline does not abort a running attempt.
+         *
+         * @param deadline
+         *            the overall deadline, measured from the start of the first
+         *            attempt, zero disables the deadline
+         * @return this builder
+         */
+        public Builder deadline(final Duration deadline) {
+            this.deadline = Durations.toNanos(deadline.abs());
+            return this;
+        }
+
+        /**
+         * Only retry on errors matching the predicate.
+         * <p>
+         * The predicate is tested with the root cause of the error, as returned
+         * by {@link Exceptions#getCause(Throwable)}. By default all errors are
+         * retried.
+         *
+         * @param retryOn
+         *            the predicate to test
+         * @return this builder
+         */
+        public Builder retryOn(final Predicate<? super Throwable> retryOn) {
+            this.retryOn = Objects.requireNonNull(retryOn);
+            return this;
+        }
+
+        /**
+         * Build a new policy.
+         *
+         * @return the new policy, never returns {@code null}
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+
+    private final int maxAttempts;
+    private final int backoff;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final long deadline;
+    private final Predicate<? super Throwable> retryOn;
+
+    private RetryPolicy(final Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.backoff = builder.backoff;
+        this.initialDelay = builder.initialDelay;
+        this.maxDelay = builder.maxDelay;
+        this.deadline = builder.deadline;
+        this.retryOn = builder.retryOn;
+    }
+
+    /**
+     * Create a new builder.
+     *
+     * @return a new builder, never returns {@code null}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the maximum number of attempts.
+     *
+     * @return the maximum number of attempts, including the first one
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    long getDeadlineNanos() {
+        return this.deadline;
+    }
+
+    boolean shouldRetry(final Throwable error) {
+        final Throwable cause = Exceptions.getCause(error);
+        return this.retryOn.test(cause != null ? cause : error);
+    }
+
+    /**
+     * Calculate the next delay.
+     *
+     * @param previousDelay
+     *            the previous delay in nanoseconds, or zero before the first
+     *            retry
+     * @return the next delay in nanoseconds
+     */
+    long nextDelay(final long previousDelay) {
+        if (previousDelay <= 0) {
+            return this.initialDelay;
+        }
+
+        switch (this.backoff) {
+        case BACKOFF_EXPONENTIAL:
+            return previousDelay > this.maxDelay / 2 ? this.maxDelay : previousDelay * 2;
+        case BACKOFF_DECORRELATED_JITTER:
+            final long upper = previousDelay > this.maxDelay / 3 ? this.maxDelay : previousDelay * 3;
+            if (upper <= this.initialDelay) {
+                return this.initialDelay;
+            }
+            return ThreadLocalRandom.current().nextLong(this.initialDelay, upper + 1);
+        default:
+            return this.initialDelay;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[RetryPolicy: maxAttempts %s, initialDelay %sns, maxDelay %sns, deadline %sns]",
+                this.maxAttempts, this.initialDelay, this.maxDelay, this.deadline);
+    }
+}
@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.glutamate.lang.Suppress;
+import io.glutamate.lang.ThrowingCallable;
+import io.glutamate.time.Durations;
+
+/**
+ * A scope for structured concurrency.
+ * <p>
+ * Tasks forked in a scope are bound to the lifetime of the scope. Closing the
+ * scope closes all children, which cancels children still waiting for
+ * execution, and interrupts children currently running. So no background work
+ * outlives the scope, even if the code using the scope fails.
+ *
+ * <pre>
+ * try (Scope&lt;String&gt; scope = Scope.open(executor, Duration.ofSeconds(5))) {
+ *     scope.fork(() -&gt; lookup("a"));
+ *     scope.fork(() -&gt; lookup("b"));
+ *     return scope.joinAll();
+ * }
+ * </pre>
+ * <p>
+ * Joining, using either {@link #joinAll()} or {@link #joinAny()}, honors the
+ * deadline of the scope. The deadline is shared by all join operations of the
+ * scope and starts when the scope is opened.
+ * <p>
+ * A scope is intended to be used by a single owner thread. Forked tasks may
+ * fork further tasks though.
+ *
+ * @param <T>
+ *            the type of the results of the children
+ */
+@NonNullByDefault
+public final class Scope<T> implements AutoCloseable {
+
+    private final Executor executor;
+    private final boolean hasDeadline;
+    private final long start;
+    private final long timeoutNanos;
+
+    private final List<CloseableCompletableFuture<T>> children = new ArrayList<>();
+    private boolean closed;
+
+    private Scope(final Executor executor, final boolean hasDeadline, final long timeoutNanos) {
+        this.executor = executor;
+        this.hasDeadline = hasDeadline;
+        this.start = System.nanoTime();
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Open a new scope without a deadline.
+     *
+     * @param executor
+     *            the executor to run forked tasks on
+     * @param <T>
+     *            the type of the results of the children
+     * @return the new scope, never returns {@code null}
+     */
+    public static <T> Scope<T> open(final Executor executor) {
+        return open(executor, null);
+    }
+
+    /**
+     * Open a new scope.
+     *
+     * @param executor
+     *            the executor to run forked tasks on
+     * @param deadline
+     *            the duration, starting now, after which joining the children
+     *            fails, {@code null} or zero to wait forever
+     * @param <T>
+     *            the type of the results of the children
+     * @return the new scope, never returns {@code null}
+     */
+    public static <T> Scope<T> open(final Executor executor, @Nullable final Duration deadline) {
+        Objects.requireNonNull(executor);
+
+        if (deadline == null || deadline.isZero()) {
+            return new Scope<>(executor, false, 0);
+        }
+
+        return new Scope<>(executor, true, Durations.toNanos(deadline.abs()));
+    }
+
+    /**
+     * Fork a new child task.
+     * <p>
+     * Closing the returned future cancels the task if it did not yet start,
+     * and interrupts it if it is currently running.
+     * <p>
+     * If the executor rejects the task, the returned future fails with the
+     * {@link RejectedExecutionException}.
+     *
+     * @param task
+     *            the task to execute
+     * @return the future of the child
+     * @throws IllegalStateException
+     *             if the scope is already closed
+     */
+    public CloseableCompletableFuture<T> fork(final ThrowingCallable<? extends T, ? extends Exception> task) {
+        Objects.requireNonNull(task);
+
+        final CloseableCompletableFuture<T> child = new CloseableCompletableFuture<>();
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("Scope is already closed");
+            }
+            this.children.add(child);
+        }
+
+        final Object lock = new Object();
+        final Thread[] runner = new Thread[1];
+        final boolean[] interrupted = new boolean[1];
+
+        child.whenClosed(() -> {
+            child.cancel(false);
+            synchronized (lock) {
+                if (runner[0] != null) {
+                    runner[0].interrupt();
+                    interrupted[0] = true;
+                }
+            }
+        });
+
+        try {
+            this.executor.execute(() -> {
+                final boolean wasInterrupted;
+                synchronized (lock) {
+                    if (child.isDone()) {
+                        return;
+                    }
+                    runner[0] = Thread.currentThread();
+                    wasInterrupted = Thread.currentThread().isInterrupted();
+                }
+                try {
+                    child.complete(task.call());
+                } catch (final Throwable e) {
+                    child.completeExceptionally(e);
+                } finally {
+                    synchronized (lock) {
+                        runner[0] = null;
+                        if (interrupted[0]) {
+                            // don't leak our interruption to the next task of this thread
+                            Thread.interrupted();
+                            if (wasInterrupted) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            child.completeExceptionally(e);
+        }
+
+        return child;
+    }
+
+    /**
+     * Wait for all children to complete successfully.
+     * <p>
+     * If a child fails, or the deadline expires, all remaining children are
+     * closed. The errors of all failed children are reported, the first one
+     * carrying the others as suppressed exceptions. If the deadline expired,
+     * without any child failing, a {@link TimeoutException} is thrown.
+     *
+     * @return the results of all children, in the order they were forked
+     * @throws Exception
+     *             if a child failed, or the deadline expired
+     */
+    public List<T> joinAll() throws Exception {
+        final List<CloseableCompletableFuture<T>> children = snapshot();
+
+        try {
+            return Await.awaitAll(children, remaining());
+        } catch (final RuntimeException e) {
+            closeChildren(children);
+            throw failure(children, e);
+        }
+    }
+
+    /**
+     * Wait for the first child to complete successfully.
+     * <p>
+     * All other children are closed as soon as the first child succeeded, or
+     * the deadline expired. If all children fail, the error of the first child
+     * is thrown, carrying the others as suppressed exceptions. If the deadline
+     * expired, a {@link TimeoutException} is thrown.
+     *
+     * @return the result of the first successful child
+     * @throws Exception
+     *             if all children failed, or the deadline expired
+     */
+    public T joinAny() throws Exception {
+        final List<CloseableCompletableFuture<T>> children = snapshot();
+
+        try {
+            return Await.awaitAny(children, remaining());
+        } catch (final RuntimeException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ExecutionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } finally {
+            closeChildren(children);
+        }
+    }
+
+    /**
+     * Close the scope and all of its children.
+     * <p>
+     * Closing children which are already completed has no effect. Forking new
+     * children is not possible after the scope was closed.
+     */
+    @Override
+    public void close() throws Exception {
+        final List<CloseableCompletableFuture<T>> children;
+
+        synchronized (this) {
+            this.closed = true;
+            children = new ArrayList<>(this.children);
+        }
+
+        try (Suppress<Exception> s = Suppress.exception()) {
+            s.close(children);
+        }
+    }
+
+    private synchronized List<CloseableCompletableFuture<T>> snapshot() {
+        return new ArrayList<>(this.children);
+    }
+
+    private static void closeChildren(final List<? extends CompletableFuture<?>> children) {
+        children.forEach(Futures::cancel);
+    }
+
+    private @Nullable Duration remaining() {
+        if (!this.hasDeadline) {
+            return null;
+        }
+        // compare elapsed time only, as nanoTime may be negative or wrap around
+        final long elapsed = System.nanoTime() - this.start;
+        // zero would mean "forever"
+        return Duration.ofNanos(Math.max(1, this.timeoutNanos - elapsed));
+    }
+
+    private static Exception failure(final List<? extends CompletableFuture<?>> children,
+            final RuntimeException error) {
+
+        try (Suppress<Exception> s = Suppress.exception()) {
+            for (final CompletableFuture<?> child : children) {
+                if (child.isCompletedExceptionally() && !child.isCancelled()) {
+                    final Throwable cause = Futures.unwrap(child.handle((value, e) -> e).join());
+                    s.run(() -> {
+                        throw cause instanceof Exception ? (Exception) cause : new ExecutionException(cause);
+                    });
+                }
+            }
+        } catch (final Exception e) {
+            return e;
+        }
+
+        final Throwable cause = error.getCause();
+        if (cause instanceof TimeoutException) {
+            return (TimeoutException) cause;
+        }
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[Scope: children %s, closed %s]", snapshot().size(), this.closed);
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * An executor running tasks one after the other, on top of another executor.
+ * <p>
+ * Tasks are executed in the order they were submitted, and never
+ * concurrently, but not necessarily on the same thread. All actions of a task
+ * happen-before the actions of the next task. This allows to serialize all
+ * tasks of one entity, without blocking, and without dedicating a thread to
+ * it.
+ * <p>
+ * Submitting a task never blocks. Tasks are queued in a lock-free queue, and
+ * drained in batches by a single task of the underlying executor. After a
+ * batch, the drain task re-submits itself, so that a busy strand does not
+ * monopolize a thread of the underlying executor.
+ * <p>
+ * Exceptions thrown by tasks are reported to the uncaught exception handler of
+ * the executing thread and do not stop the execution of the following tasks.
+ * <p>
+ * Instances can be used as executor of the {@code *Async} methods of
+ * {@link java.util.concurrent.CompletionStage}.
+ */
+@NonNullByDefault
+public final class SerialExecutor implements Executor {
+
+    private static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * A single submission, so that a rejected submission can be removed by
+     * identity, even if the same command was submitted more than once.
+     */
+    private static final class Task {
+        private final Runnable command;
+
+        private Task(final Runnable command) {
+            this.command = command;
+        }
+    }
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+
+    private final Executor executor;
+    private final int batchSize;
+
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final Runnable drain = this::drain;
+
+    private SerialExecutor(final Executor executor, final int batchSize) {
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create a new serial executor, using the default batch size.
+     *
+     * @param executor
+     *            the executor to run tasks on
+     * @return the new executor, never returns {@code null}
+     */
+    public static SerialExecutor of(final Executor executor) {
+        return of(executor, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Create a new serial executor.
+     *
+     * @param executor
+     *            the executor to run tasks on
+     * @param batchSize
+     *            the maximum number of tasks to run, before handing back the
+     *            thread to the underlying executor, must be positive
+     * @return the new executor, never returns {@code null}
+     */
+    public static SerialExecutor of(final Executor executor, final int batchSize) {
+        Objects.requireNonNull(executor);
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("'batchSize' must be positive");
+        }
+
+        return new SerialExecutor(executor, batchSize);
+    }
+
+    /**
+     * Queue a task for execution.
+     * <p>
+     * If the underlying executor rejects running the queue, this task is not
+     * queued, and the exception is re-thrown. Tasks which got queued by other
+     * threads in the meantime stay queued, and will be executed once the next
+     * task was submitted successfully.
+     *
+     * @throws RejectedExecutionException
+     *             if the underlying executor rejected running the queue
+     */
+    @Override
+    public void execute(final Runnable command) {
+        Objects.requireNonNull(command);
+
+        final Task task = new Task(command);
+        this.tasks.add(task);
+
+        if (this.state.compareAndSet(IDLE, SCHEDULED)) {
+            try {
+                this.executor.execute(this.drain);
+            } catch (final RejectedExecutionException e) {
+                this.tasks.remove(task);
+                this.state.set(IDLE);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+
+            for (int i = 0; i < this.batchSize; i++) {
+                final Task task = this.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                run(task.command);
+            }
+
+            if (!this.tasks.isEmpty()) {
+                // more to do, but give others a chance first
+                resubmit();
+                return;
+            }
+
+            this.state.set(IDLE);
+
+            // re-check, a task might have been added before we switched to idle
+
+            if (this.tasks.isEmpty() || !this.state.compareAndSet(IDLE, SCHEDULED)) {
+                return;
+            }
+        }
+    }
+
+    private void resubmit() {
+        try {
+            this.executor.execute(this.drain);
+        } catch (final RejectedExecutionException e) {
+            // pending tasks wait for the next successful call to execute()
+            this.state.set(IDLE);
+            throw e;
+        }
+    }
+
+    private static void run(final Runnable task) {
+        try {
+            task.run();
+        } catch (final Throwable e) {
+            final Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    /**
+     * Get the number of queued tasks.
+     * <p>
+     * <strong>Note:</strong> This is an {@code O(n)} operation.
+     *
+     * @return the number of tasks waiting for execution
+     */
+    public int getQueueSize() {
+        return this.tasks.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[SerialExecutor: executor %s, batchSize %s]", this.executor, this.batchSize);
+    }
+}
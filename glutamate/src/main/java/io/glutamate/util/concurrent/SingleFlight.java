@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Deduplicate concurrent, identical asynchronous calls.
+ * <p>
+ * All callers requesting the same key, while a call for this key is in flight,
+ * share the same underlying call. Once the call completes, the key is released
+ * and the next request will trigger a new call.
+ * <p>
+ * Each caller receives its own {@link CloseableCompletableFuture} view on the
+ * shared call. Closing a view signals that the caller is no longer interested
+ * in the result. Only when all views of a call have been closed, before the
+ * call completed, the underlying call will be closed, in case it is a
+ * {@link CloseableCompletionStage}, or cancelled otherwise.
+ *
+ * @param <K>
+ *            the type of the key
+ * @param <V>
+ *            the type of the value
+ */
+@NonNullByDefault
+public final class SingleFlight<K, V> {
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private @Nullable CompletionStage<? extends V> call;
+        private int references;
+    }
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private SingleFlight() {
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param <K>
+     *            the type of the key
+     * @param <V>
+     *            the type of the value
+     * @return the new instance, never returns {@code null}
+     */
+    public static <K, V> SingleFlight<K, V> create() {
+        return new SingleFlight<>();
+    }
+
+    /**
+     * Execute a call, or join the call already in flight for the same key.
+     *
+     * @param key
+     *            the key identifying the call
+     * @param call
+     *            the supplier initiating the call, only invoked if no call for
+     *            this key is in flight
+     * @return a new view on the call, never returns {@code null}
+     */
+    public CloseableCompletableFuture<V> execute(final K key,
+            final Supplier<? extends CompletionStage<? extends V>> call) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(call);
+
+        final Flight<V> created = new Flight<>();
+
+        final Flight<V> flight = this.flights.compute(key, (k, existing) -> {
+            final Flight<V> result = existing != null ? existing : created;
+            result.references++;
+            return result;
+        });
+
+        final CloseableCompletableFuture<V> view = new CloseableCompletableFuture<>();
+
+        flight.result.whenComplete((value, error) -> {
+            if (error != null) {
+                view.completeExceptionally(error);
+            } else {
+                view.complete(value);
+            }
+        });
+        view.whenClosed(() -> release(key, flight));
+
+        if (flight == created) {
+            start(key, flight, call);
+        }
+
+        return view;
+    }
+
+    /**
+     * Get the number of calls currently in flight.
+     *
+     * @return the number of keys with a call in flight
+     */
+    public int getInFlightCount() {
+        return this.flights.size();
+    }
+
+    private void start(final K key, final Flight<V> flight,
+            final Supplier<? extends CompletionStage<? extends V>> call) {
+
+        flight.result.whenComplete((value, error) -> this.flights.remove(key, flight));
+
+        @Nullable
+        CompletionStage<? extends V> stage;
+        try {
+            stage = call.get();
+        } catch (final Throwable e) {
+            // the flight must complete, otherwise it stays registered forever
+            stage = Futures.failed(e);
+        }
+
+        if (stage == null) {
+            stage = Futures.failed(new NullPointerException("Call returned a null stage"));
+        }
+
+        // all views might have been closed in the meantime
+
+        final boolean abandoned;
+        synchronized (flight) {
+            flight.call = stage;
+            abandoned = flight.references <= 0;
+        }
+
+        stage.whenComplete((value, error) -> {
+            if (error != null) {
+                flight.result.completeExceptionally(Futures.unwrap(error));
+            } else {
+                flight.result.complete(value);
+            }
+        });
+
+        if (abandoned) {
+            Futures.cancel(stage);
+        }
+    }
+
+    private void release(final K key, final Flight<V> flight) {
+
+        final boolean[] last = new boolean[1];
+
+        this.flights.computeIfPresent(key, (k, existing) -> {
+            if (existing != flight) {
+                return existing;
+            }
+            existing.references--;
+            if (existing.references > 0) {
+                return existing;
+            }
+            last[0] = true;
+            return null;
+        });
+
+        if (!last[0] || flight.result.isDone()) {
+            return;
+        }
+
+        final CompletionStage<? extends V> call;
+        synchronized (flight) {
+            call = flight.call;
+        }
+
+        if (call != null) {
+            Futures.cancel(call);
+        }
+        flight.result.cancel(false);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[SingleFlight: in flight %s]", this.flights.size());
+    }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.glutamate.lang.Resource;
+
+/**
+ * Unit test for {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        final BufferPool pool = BufferPool.builder().sizes(512, 4096).build();
+
+        try (BufferPool.Lease lease = pool.acquire(100)) {
+            Assert.assertEquals(512, lease.buffer().capacity());
+            Assert.assertEquals(100, lease.buffer().limit());
+            Assert.assertEquals(0, lease.buffer().position());
+        }
+
+        try (BufferPool.Lease lease = pool.acquire(1025)) {
+            Assert.assertEquals(2048, lease.buffer().capacity());
+        }
+
+        // not pooled
+
+        try (BufferPool.Lease lease = pool.acquire(5000)) {
+            Assert.assertEquals(5000, lease.buffer().capacity());
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        final BufferPool pool = BufferPool.builder().direct(true).build();
+        Assert.assertTrue(pool.isDirect());
+
+        final ByteBuffer first;
+        try (BufferPool.Lease lease = pool.acquire(8192)) {
+            first = lease.buffer();
+            Assert.assertTrue(first.isDirect());
+            first.put((byte) 1);
+        }
+
+        try (BufferPool.Lease lease = pool.acquire(8000)) {
+            Assert.assertSame(first, lease.buffer());
+            Assert.assertEquals(0, lease.buffer().position());
+            Assert.assertEquals(8000, lease.buffer().limit());
+        }
+
+        Assert.assertEquals(2, pool.getLeaseCount());
+        Assert.assertEquals(1, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testResetByteOrder() {
+        final BufferPool pool = BufferPool.builder().build();
+
+        final ByteBuffer first;
+        try (BufferPool.Lease lease = pool.acquire(100)) {
+            first = lease.buffer();
+            first.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        try (BufferPool.Lease lease = pool.acquire(100)) {
+            Assert.assertSame(first, lease.buffer());
+            Assert.assertEquals(ByteOrder.BIG_ENDIAN, lease.buffer().order());
+        }
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        final BufferPool pool = BufferPool.builder().threadLocalCapacity(0).sharedCapacity(2 * 1024).build();
+
+        final BufferPool.Lease l1 = pool.acquire(1024);
+        final BufferPool.Lease l2 = pool.acquire(1024);
+        final BufferPool.Lease l3 = pool.acquire(1024);
+        l1.close();
+        l2.close();
+        l3.close();
+
+        // capacity is two buffers of this size class
+
+        Assert.assertEquals(2, pool.getSharedCount());
+
+        // buffers are shared across threads
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> f = executor.submit(() -> {
+                pool.acquire(1024).close();
+            });
+            f.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(3, pool.getAllocationCount());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final BufferPool pool = BufferPool.builder().build();
+
+        final BufferPool.Lease lease = pool.acquire(10);
+        try (Resource<BufferPool.Lease> resource = Resource.manage(lease)) {
+            resource.get().buffer().put((byte) 1);
+        }
+
+        Assertions.assertThatThrownBy(lease::buffer).isInstanceOf(IllegalStateException.class);
+
+        // closing again has no effect
+
+        lease.close();
+        Assert.assertEquals(0, pool.getSharedCount());
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        final List<Throwable> leaks = new CopyOnWriteArrayList<>();
+        final BufferPool pool = BufferPool.builder()
+                .leakDetectionInterval(1)
+                .leakListener(leaks::add)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            pool.acquire(100);
+        }
+        pool.acquire(100).close();
+
+        for (int i = 0; i < 100 && pool.getLeakCount() < 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+            pool.acquire(100).close();
+        }
+
+        Assert.assertEquals(10, pool.getLeakCount());
+        Assert.assertEquals(10, leaks.size());
+        Assertions.assertThat(leaks.get(0).getStackTrace()).isNotEmpty();
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final BufferPool pool = BufferPool.builder().threadLocalCapacity(1).build();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10_000; j++) {
+                        try (BufferPool.Lease l1 = pool.acquire(4096);
+                                BufferPool.Lease l2 = pool.acquire(4096)) {
+                            Assert.assertNotSame(l1.buffer(), l2.buffer());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(80_000, pool.getLeaseCount());
+        Assertions.assertThat(pool.getAllocationCount()).isLessThan(1_000);
+    }
+}
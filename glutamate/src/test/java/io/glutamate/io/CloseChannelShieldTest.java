@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for the channel variants of {@link Close}.
+ */
+public class CloseChannelShieldTest {
+
+    @Test
+    public void testReadableWritable() throws IOException {
+        final ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream("foo".getBytes(UTF_8)));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final WritableByteChannel out = Channels.newChannel(bytes);
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+
+        try (ReadableByteChannel shieldedIn = Close.shield(in);
+                WritableByteChannel shieldedOut = Close.shield(out)) {
+            shieldedIn.read(buffer);
+            buffer.flip();
+            shieldedOut.write(buffer);
+        }
+
+        Assert.assertTrue(in.isOpen());
+        Assert.assertTrue(out.isOpen());
+        Assert.assertEquals("foo", bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void testGathering() throws IOException {
+        final Pipe pipe = Pipe.open();
+        try {
+            try (GatheringByteChannel sink = Close.shield(pipe.sink())) {
+                sink.write(new ByteBuffer[] { ByteBuffer.wrap(new byte[] { 1 }), ByteBuffer.wrap(new byte[] { 2 }) });
+            }
+
+            Assert.assertTrue(pipe.sink().isOpen());
+
+            final ByteBuffer buffer = ByteBuffer.allocate(2);
+            while (buffer.hasRemaining()) {
+                pipe.source().read(buffer);
+            }
+            Assert.assertArrayEquals(new byte[] { 1, 2 }, buffer.array());
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void testSocket() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel accepted = server.accept()) {
+
+                try (ScatteringGatheringByteChannel shielded = Close.shield(client)) {
+                    shielded.write(new ByteBuffer[] { ByteBuffer.wrap("foo".getBytes(UTF_8)) });
+                }
+
+                Assert.assertTrue(client.isOpen());
+
+                final ByteBuffer buffer = ByteBuffer.allocate(3);
+                while (buffer.hasRemaining()) {
+                    accepted.read(buffer);
+                }
+                Assert.assertEquals("foo", new String(buffer.array(), UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testSeekable() throws IOException {
+        final Path file = Files.createTempFile("glutamate", ".bin");
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.WRITE)) {
+
+            try (SeekableByteChannel shielded = Close.shield(channel)) {
+                shielded.write(ByteBuffer.wrap("foobar".getBytes(UTF_8)));
+                Assert.assertSame(shielded, shielded.position(3));
+                shielded.truncate(3);
+                Assert.assertEquals(3, shielded.size());
+            }
+
+            Assert.assertTrue(channel.isOpen());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFileChannelTransfer() throws IOException {
+        final Path source = Files.createTempFile("glutamate", ".bin");
+        final Path target = Files.createTempFile("glutamate", ".bin");
+        try {
+            final byte[] data = new byte[1024 * 1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            Files.write(source, data);
+
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+
+                try (FileChannel shieldedIn = Close.shield(in);
+                        FileChannel shieldedOut = Close.shield(out)) {
+
+                    long position = 0;
+                    while (position < shieldedIn.size()) {
+                        position += shieldedIn.transferTo(position, shieldedIn.size() - position, shieldedOut);
+                    }
+                }
+
+                Assert.assertTrue(in.isOpen());
+                Assert.assertTrue(out.isOpen());
+                Assert.assertEquals(data.length, out.size());
+            }
+
+            Assert.assertArrayEquals(data, Files.readAllBytes(target));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void testUnwrap() throws IOException {
+        final Pipe pipe = Pipe.open();
+        try {
+            final WritableByteChannel shielded = Close.shield(Close.shield((WritableByteChannel) pipe.sink()));
+            Assert.assertSame(pipe.sink(), ChannelShields.unwrap(shielded));
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+}
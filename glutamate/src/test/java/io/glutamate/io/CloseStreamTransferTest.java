@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for the bulk transfer methods of the shielded streams of
+ * {@link Close}.
+ */
+public class CloseStreamTransferTest {
+
+    private static byte[] data(final int length) {
+        final byte[] result = new byte[length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) i;
+        }
+        return result;
+    }
+
+    /**
+     * Call the bulk method by reflection, as it is not available on the
+     * {@link InputStream} of Java 8.
+     */
+    private static Object invoke(final InputStream stream, final String name, final Class<?>[] types,
+            final Object... args) throws Exception {
+        final Method method = stream.getClass().getMethod(name, types);
+        method.setAccessible(true);
+        return method.invoke(stream, args);
+    }
+
+    @Test
+    public void testTransferTo() throws Exception {
+        final byte[] data = data(100_000);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (InputStream in = Close.shield(new ByteArrayInputStream(data))) {
+            final Object result = invoke(in, "transferTo", new Class<?>[] { OutputStream.class }, out);
+            Assert.assertEquals((long) data.length, result);
+        }
+
+        Assert.assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testFileTransfer() throws Exception {
+        final Path source = Files.createTempFile("glutamate", ".bin");
+        final Path target = Files.createTempFile("glutamate", ".bin");
+        try {
+            final byte[] data = data(1024 * 1024);
+            Files.write(source, data);
+
+            try (FileInputStream in = new FileInputStream(source.toFile());
+                    FileOutputStream out = new FileOutputStream(target.toFile())) {
+
+                // skip the first bytes, which must not be transferred
+                Assert.assertEquals(10, in.skip(10));
+
+                try (InputStream shieldedIn = Close.shield(in);
+                        OutputStream shieldedOut = Close.shield(out)) {
+                    final Object result = invoke(shieldedIn, "transferTo", new Class<?>[] { OutputStream.class },
+                            shieldedOut);
+                    Assert.assertEquals((long) data.length - 10, result);
+                }
+
+                // the source is consumed, but still open
+
+                Assert.assertEquals(-1, in.read());
+                Assert.assertEquals(data.length - 10, out.getChannel().position());
+            }
+
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 10, data.length), Files.readAllBytes(target));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void testReadAllBytes() throws Exception {
+        final byte[] data = data(20_000);
+
+        try (InputStream in = Close.shield(new ByteArrayInputStream(data))) {
+            Assert.assertArrayEquals(data, (byte[]) invoke(in, "readAllBytes", new Class<?>[0]));
+        }
+    }
+
+    @Test
+    public void testReadNBytes() throws Exception {
+        final byte[] data = data(20_000);
+
+        try (InputStream in = Close.shield(new ByteArrayInputStream(data))) {
+            final byte[] buffer = new byte[100];
+            final Object read = invoke(in, "readNBytes", new Class<?>[] { byte[].class, int.class, int.class },
+                    buffer, 10, 50);
+            Assert.assertEquals(50, read);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 0, 50), Arrays.copyOfRange(buffer, 10, 60));
+
+            final byte[] rest = (byte[]) invoke(in, "readNBytes", new Class<?>[] { int.class }, 100_000);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 50, data.length), rest);
+        }
+    }
+
+    @Test
+    public void testDelegateStaysOpen() throws IOException {
+        final boolean[] closed = new boolean[1];
+        final InputStream stream = new ByteArrayInputStream(data(10)) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+
+        try (InputStream in = Close.shield(stream)) {
+            Assert.assertEquals(0, in.read());
+        }
+
+        Assert.assertFalse(closed[0]);
+    }
+}
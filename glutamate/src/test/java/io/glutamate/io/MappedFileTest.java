@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.glutamate.lang.Resource;
+
+/**
+ * Unit test for {@link MappedFile}.
+ */
+public class MappedFileTest {
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        this.file = Files.createTempFile("glutamate", ".log");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.delete(this.file);
+    }
+
+    private static List<String> toStrings(final MappedFile file) {
+        return file.lines().map(CharSequence::toString).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        Files.write(this.file, "foo\nbar\r\n\nbaz".getBytes(UTF_8));
+
+        try (MappedFile file = MappedFile.open(this.file)) {
+            Assert.assertEquals(13, file.size());
+            Assert.assertEquals(Arrays.asList("foo", "bar", "", "baz"), toStrings(file));
+        }
+    }
+
+    @Test
+    public void testTrailingDelimiter() throws IOException {
+        Files.write(this.file, "foo\nbar\n".getBytes(UTF_8));
+
+        try (MappedFile file = MappedFile.open(this.file)) {
+            Assert.assertEquals(Arrays.asList("foo", "bar"), toStrings(file));
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        try (MappedFile file = MappedFile.open(this.file)) {
+            Assert.assertEquals(0, file.lines().count());
+        }
+    }
+
+    @Test
+    public void testUtf8() throws IOException {
+        Files.write(this.file, "foo\nGrüße\n".getBytes(UTF_8));
+
+        try (MappedFile file = MappedFile.open(this.file)) {
+            final List<CharSequence> lines = file.lines().collect(Collectors.toList());
+            Assert.assertEquals("foo", lines.get(0).toString());
+            Assert.assertEquals("Grüße", lines.get(1).toString());
+            Assert.assertEquals("oo", lines.get(0).subSequence(1, 3).toString());
+        }
+    }
+
+    @Test
+    public void testRecords() throws IOException {
+        Files.write(this.file, new byte[] { 1, 2, 0, 3, 0 });
+
+        try (MappedFile file = MappedFile.open(this.file)) {
+            final List<ByteBuffer> records = file.records((byte) 0).collect(Collectors.toList());
+            Assert.assertEquals(2, records.size());
+            Assert.assertEquals(ByteBuffer.wrap(new byte[] { 1, 2 }), records.get(0));
+            Assert.assertEquals(ByteBuffer.wrap(new byte[] { 3 }), records.get(1));
+            Assert.assertTrue(records.get(0).isReadOnly());
+        }
+    }
+
+    @Test
+    public void testWindows() throws IOException {
+        final List<String> expected = IntStream.range(0, 1_000)
+                .mapToObj(i -> "line " + i)
+                .collect(Collectors.toList());
+        Files.write(this.file, expected, UTF_8);
+
+        // records cross the window boundaries
+
+        try (MappedFile file = MappedFile.open(this.file, 16)) {
+            Assert.assertEquals(expected, toStrings(file));
+        }
+    }
+
+    @Test
+    public void testManyWindows() throws IOException {
+        final List<String> expected = IntStream.range(0, 200_000)
+                .mapToObj(i -> "line " + i)
+                .collect(Collectors.toList());
+        Files.write(this.file, expected, UTF_8);
+
+        // more windows than the default limit of mappings of a Linux process
+
+        try (MappedFile file = MappedFile.open(this.file, 32, true)) {
+            Assert.assertEquals(expected.size(), file.lines().count());
+            Assertions.assertThat(file.toString()).contains("mappings 1,");
+        }
+    }
+
+    @Test
+    public void testKeepWindows() throws IOException {
+        final List<String> expected = IntStream.range(0, 1_000)
+                .mapToObj(i -> "line " + i)
+                .collect(Collectors.toList());
+        Files.write(this.file, expected, UTF_8);
+
+        // records stay valid after the stream moved on to the next window
+
+        try (MappedFile file = MappedFile.open(this.file, 64)) {
+            final List<CharSequence> lines = file.lines().collect(Collectors.toList());
+            Assert.assertEquals(expected, lines.stream()
+                    .map(CharSequence::toString)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testRecordExceedsWindow() throws IOException {
+        Files.write(this.file, "foo\nfoobarbaz\n".getBytes(UTF_8));
+
+        try (MappedFile file = MappedFile.open(this.file, 8)) {
+            Assertions.assertThatThrownBy(() -> toStrings(file)).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    public void testSplit() throws IOException {
+        final List<String> expected = IntStream.range(0, 100_000)
+                .mapToObj(i -> "line " + i)
+                .collect(Collectors.toList());
+        Files.write(this.file, expected, UTF_8);
+
+        try (MappedFile file = MappedFile.open(this.file, 64 * 1024)) {
+
+            final Spliterator<ByteBuffer> spliterator = file.spliterator((byte) '\n');
+            final Spliterator<ByteBuffer> prefix = spliterator.trySplit();
+            Assert.assertNotNull(prefix);
+
+            final long[] count = new long[1];
+            prefix.forEachRemaining(record -> count[0]++);
+            spliterator.forEachRemaining(record -> count[0]++);
+            Assert.assertEquals(expected.size(), count[0]);
+
+            Assert.assertEquals(expected, file.lines()
+                    .parallel()
+                    .map(CharSequence::toString)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testResource() throws Exception {
+        Files.write(this.file, "foo\nbar\n".getBytes(UTF_8));
+
+        final MappedFile file = MappedFile.open(this.file);
+        try (Resource<MappedFile> resource = Resource.manage(file)) {
+            Assert.assertEquals(2, resource.get().lines().count());
+        }
+
+        Assertions.assertThatThrownBy(() -> file.lines().count()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testUnmap() throws IOException {
+        Files.write(this.file, "foo".getBytes(UTF_8));
+
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, 3);
+            Assert.assertEquals('f', buffer.get(0));
+
+            Assertions.assertThatThrownBy(() -> Close.unmap((MappedByteBuffer) buffer.duplicate()))
+                    .isInstanceOf(IllegalArgumentException.class);
+
+            Assert.assertTrue(Close.unmap(buffer));
+        }
+    }
+}
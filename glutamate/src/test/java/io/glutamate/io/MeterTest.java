@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Meter}.
+ */
+public class MeterTest {
+
+    @Test
+    public void testStreams() throws IOException {
+        final Meter meter = Meter.create();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = meter.wrap(bytes)) {
+            out.write(1);
+            out.write(new byte[] { 2, 3 });
+            out.write(new byte[] { 4, 5, 6, 7 }, 1, 2);
+        }
+
+        try (InputStream in = meter.wrap(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(1, in.read());
+            Assert.assertEquals(4, in.read(new byte[10]));
+            Assert.assertEquals(-1, in.read(new byte[10], 0, 10));
+        }
+
+        final Meter.Statistics statistics = meter.getStatistics();
+
+        Assert.assertEquals(3, statistics.getWriteCount());
+        Assert.assertEquals(5, statistics.getBytesWritten());
+        Assert.assertEquals(5.0 / 3.0, statistics.getBytesPerWrite(), 0.001);
+
+        Assert.assertEquals(3, statistics.getReadCount());
+        Assert.assertEquals(5, statistics.getBytesRead());
+
+        // not timed
+
+        Assert.assertEquals(Duration.ZERO, statistics.getReadTime());
+        Assert.assertEquals(Duration.ZERO, statistics.getWriteTime());
+    }
+
+    @Test
+    public void testReaderWriter() throws IOException {
+        final Meter meter = Meter.create();
+
+        final StringWriter string = new StringWriter();
+        try (Writer writer = meter.wrap(string)) {
+            writer.write("foo");
+            writer.append("bar").append('!');
+        }
+        Assert.assertEquals("foobar!", string.toString());
+
+        try (Reader reader = meter.wrap(new StringReader("foobar!"))) {
+            final char[] buffer = new char[3];
+            while (reader.read(buffer) >= 0) {
+            }
+        }
+
+        final Meter.Statistics statistics = meter.getStatistics();
+        Assert.assertEquals(3, statistics.getWriteCount());
+        Assert.assertEquals(7, statistics.getBytesWritten());
+        Assert.assertEquals(4, statistics.getReadCount());
+        Assert.assertEquals(7, statistics.getBytesRead());
+    }
+
+    @Test
+    public void testChannels() throws IOException {
+        final Meter meter = Meter.createTimed();
+        Assert.assertTrue(meter.isTimed());
+
+        final Pipe pipe = Pipe.open();
+        try (WritableByteChannel sink = meter.wrap((WritableByteChannel) pipe.sink());
+                ReadableByteChannel source = meter.wrap((ReadableByteChannel) pipe.source())) {
+
+            Assert.assertEquals(3, sink.write(ByteBuffer.wrap("foo".getBytes(UTF_8))));
+
+            final ByteBuffer buffer = ByteBuffer.allocate(3);
+            while (buffer.hasRemaining()) {
+                source.read(buffer);
+            }
+            Assert.assertEquals("foo", new String(buffer.array(), UTF_8));
+        }
+
+        Assert.assertFalse(pipe.sink().isOpen());
+
+        final Meter.Statistics statistics = meter.getStatistics();
+        Assert.assertEquals(1, statistics.getWriteCount());
+        Assert.assertEquals(3, statistics.getBytesWritten());
+        Assert.assertEquals(3, statistics.getBytesRead());
+        Assert.assertTrue(statistics.getWriteTime().toNanos() > 0);
+        Assert.assertTrue(statistics.getReadThroughput() > 0);
+    }
+
+    @Test
+    public void testByteChannel() throws IOException {
+        final Meter meter = Meter.create();
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteChannel channel = new ByteChannel() {
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+
+            @Override
+            public int write(final ByteBuffer src) throws IOException {
+                final int result = src.remaining();
+                while (src.hasRemaining()) {
+                    bytes.write(src.get());
+                }
+                return result;
+            }
+
+            @Override
+            public int read(final ByteBuffer dst) throws IOException {
+                return -1;
+            }
+        };
+
+        try (ByteChannel metered = meter.wrap(channel)) {
+            metered.write(ByteBuffer.wrap(new byte[] { 1, 2 }));
+            Assert.assertEquals(-1, metered.read(ByteBuffer.allocate(1)));
+        }
+
+        final Meter.Statistics statistics = meter.getStatistics();
+        Assert.assertEquals(2, statistics.getBytesWritten());
+        Assert.assertEquals(1, statistics.getReadCount());
+        Assert.assertEquals(0, statistics.getBytesRead());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final Meter meter = Meter.create();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                try (OutputStream out = meter.wrap(new ByteArrayOutputStream())) {
+                    for (int j = 0; j < 10_000; j++) {
+                        out.write(j);
+                    }
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final Meter.Statistics statistics = meter.getStatistics();
+        Assert.assertEquals(40_000, statistics.getWriteCount());
+        Assert.assertEquals(40_000, statistics.getBytesWritten());
+        Assert.assertEquals(1.0, statistics.getBytesPerWrite(), 0.0);
+    }
+}
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.time;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link WheelTimer}.
+ */
+public class WheelTimerTest {
+
+    @Test
+    public void testExpire() throws Exception {
+        try (WheelTimer timer = WheelTimer.create(Duration.ofMillis(1), 8)) {
+            final CountDownLatch latch = new CountDownLatch(3);
+
+            // the last one needs more than one round
+            timer.schedule(latch::countDown, Duration.ZERO);
+            timer.schedule(latch::countDown, Duration.ofMillis(5));
+            final WheelTimer.Timeout timeout = timer.schedule(latch::countDown, Duration.ofMillis(50));
+
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(timeout.isExpired());
+            Assert.assertEquals(0, timer.getPendingCount());
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        try (WheelTimer timer = WheelTimer.create(Duration.ofMillis(1), 8)) {
+            final AtomicInteger counter = new AtomicInteger();
+
+            final WheelTimer.Timeout timeout = timer.schedule(counter::incrementAndGet, Duration.ofMillis(20));
+            Assert.assertEquals(1, timer.getPendingCount());
+
+            Assert.assertTrue(timeout.cancel());
+            Assert.assertFalse(timeout.cancel());
+            Assert.assertEquals(0, timer.getPendingCount());
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            timer.schedule(latch::countDown, Duration.ofMillis(40));
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            Assert.assertTrue(timeout.isCancelled());
+            Assert.assertEquals(0, counter.get());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCloseShared() {
+        WheelTimer.shared().close();
+    }
+}
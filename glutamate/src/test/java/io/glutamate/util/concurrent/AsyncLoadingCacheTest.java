@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AsyncLoadingCache}.
+ */
+public class AsyncLoadingCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testLoad() throws Exception {
+        final AsyncLoadingCache<Integer, String> cache = AsyncLoadingCache.<Integer, String> builder(key -> {
+            this.loads.incrementAndGet();
+            return Futures.succeeded("#" + key);
+        }).build();
+
+        Assert.assertEquals("#1", cache.get(1).toCompletableFuture().get());
+        Assert.assertEquals("#1", cache.get(1).toCompletableFuture().get());
+
+        Assert.assertEquals(1, this.loads.get());
+        Assert.assertEquals(1, cache.getStatistics().getHitCount());
+        Assert.assertEquals(1, cache.getStatistics().getMissCount());
+        Assert.assertEquals(1, cache.getStatistics().getLoadSuccessCount());
+    }
+
+    @Test
+    public void testFailedLoadIsEvicted() {
+        final AsyncLoadingCache<Integer, String> cache = AsyncLoadingCache.<Integer, String> builder(key -> {
+            this.loads.incrementAndGet();
+            return Futures.failed(new IOException());
+        }).build();
+
+        Assertions.assertThatThrownBy(cache.get(1).toCompletableFuture()::get).hasCauseInstanceOf(IOException.class);
+        Assert.assertEquals(0, cache.size());
+
+        cache.get(1);
+        Assert.assertEquals(2, this.loads.get());
+        Assert.assertEquals(2, cache.getStatistics().getLoadFailureCount());
+    }
+
+    @Test
+    public void testNullStageIsEvicted() {
+        final AsyncLoadingCache<Integer, String> cache = AsyncLoadingCache.<Integer, String> builder(key -> {
+            this.loads.incrementAndGet();
+            return null;
+        }).build();
+
+        Assertions.assertThatThrownBy(cache.get(1).toCompletableFuture()::get)
+                .hasCauseInstanceOf(NullPointerException.class);
+        Assert.assertEquals(0, cache.size());
+
+        cache.get(1);
+        Assert.assertEquals(2, this.loads.get());
+        Assert.assertEquals(2, cache.getStatistics().getLoadFailureCount());
+    }
+
+    @Test
+    public void testMaximumSize() {
+        final AsyncLoadingCache<Integer, String> cache = AsyncLoadingCache
+                .<Integer, String> builder(key -> Futures.succeeded("#" + key))
+                .maximumSize(10)
+                .build();
+
+        // make "0" a frequently used entry
+        cache.get(0);
+        cache.get(0);
+
+        for (int i = 1; i < 100; i++) {
+            cache.get(i);
+        }
+
+        Assert.assertEquals(10, cache.size());
+        Assert.assertNotNull(cache.getIfPresent(0));
+        Assert.assertEquals(90, cache.getStatistics().getEvictionCount());
+    }
+
+    @Test
+    public void testExpireAfterWrite() throws Exception {
+        final AsyncLoadingCache<Integer, String> cache = AsyncLoadingCache
+                .<Integer, String> builder(key -> Futures.succeeded("#" + this.loads.incrementAndGet()))
+                .expireAfterWrite(Duration.ofMillis(20))
+                .build();
+
+        Assert.assertEquals("#1", cache.get(1).toCompletableFuture().get());
+        Thread.sleep(50);
+        Assert.assertNull(cache.getIfPresent(1));
+        Assert.assertEquals("#2", cache.get(1).toCompletableFuture().get());
+    }
+
+    @Test
+    public void testRefreshAfterWrite() throws Exception {
+        final AsyncLoadingCache<Integer, String> cache = AsyncLoadingCache
+                .<Integer, String> builder(key -> Futures.succeeded("#" + this.loads.incrementAndGet()))
+                .refreshAfterWrite(Duration.ofMillis(20))
+                .build();
+
+        Assert.assertEquals("#1", cache.get(1).toCompletableFuture().get());
+        Thread.sleep(50);
+
+        // stale value, triggering the refresh
+        Assert.assertEquals("#1", cache.get(1).toCompletableFuture().get());
+        Assert.assertEquals("#2", cache.get(1).toCompletableFuture().get());
+    }
+}
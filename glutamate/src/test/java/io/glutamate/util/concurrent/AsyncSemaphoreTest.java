@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.glutamate.util.concurrent.AsyncSemaphore.Permit;
+
+/**
+ * Unit tests for {@link AsyncSemaphore} and {@link AsyncLock}.
+ */
+public class AsyncSemaphoreTest {
+
+    @Test
+    public void testFifo() throws Exception {
+        final AsyncSemaphore semaphore = AsyncSemaphore.create(1);
+
+        final Permit first = semaphore.acquire().toCompletableFuture().get();
+
+        final CompletableFuture<Permit> second = semaphore.acquire().toCompletableFuture();
+        final CompletableFuture<Permit> third = semaphore.acquire().toCompletableFuture();
+
+        Assert.assertFalse(second.isDone());
+        Assert.assertEquals(2, semaphore.getWaitingCount());
+        Assert.assertFalse(semaphore.tryAcquire().isPresent());
+
+        first.close();
+        first.close();
+
+        Assert.assertTrue(second.isDone());
+        Assert.assertFalse(third.isDone());
+
+        try (Permit permit = second.get()) {
+            Assert.assertEquals(0, semaphore.getAvailablePermits());
+        }
+
+        third.get().close();
+
+        Assert.assertEquals(1, semaphore.getAvailablePermits());
+        Assert.assertEquals(3, semaphore.getAcquiredCount());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final AsyncSemaphore semaphore = AsyncSemaphore.create(1);
+
+        final Permit first = semaphore.tryAcquire().get();
+
+        final CompletableFuture<Permit> second = semaphore.acquire().toCompletableFuture();
+        second.cancel(false);
+        Assert.assertEquals(0, semaphore.getWaitingCount());
+
+        first.close();
+        Assert.assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final AsyncSemaphore semaphore = AsyncSemaphore.create(1);
+
+        final Permit first = semaphore.tryAcquire().get();
+
+        final CompletableFuture<Permit> second = semaphore.acquire(Duration.ofMillis(20)).toCompletableFuture();
+
+        Assertions.assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(TimeoutException.class);
+        Assert.assertEquals(1, semaphore.getTimedOutCount());
+
+        first.close();
+        Assert.assertEquals(1, semaphore.getAvailablePermits());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final AsyncSemaphore semaphore = AsyncSemaphore.create(3, false);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final CompletableFuture<?>[] tasks = new CompletableFuture<?>[1_000];
+            for (int i = 0; i < tasks.length; i++) {
+                tasks[i] = semaphore.acquire().toCompletableFuture().thenAcceptAsync(permit -> {
+                    try (Permit p = permit) {
+                        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                        active.decrementAndGet();
+                    }
+                }, executor);
+            }
+
+            CompletableFuture.allOf(tasks).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertThat(maxActive.get()).isBetween(1, 3);
+        Assert.assertEquals(3, semaphore.getAvailablePermits());
+        Assert.assertEquals(1_000, semaphore.getAcquiredCount());
+    }
+
+    @Test
+    public void testLock() throws Exception {
+        final AsyncLock lock = AsyncLock.create();
+
+        final Permit permit = lock.acquire().toCompletableFuture().get();
+        Assert.assertTrue(lock.isLocked());
+
+        final CompletableFuture<Permit> next = lock.acquire().toCompletableFuture();
+        Assert.assertFalse(next.isDone());
+
+        permit.close();
+        next.get().close();
+
+        Assert.assertFalse(lock.isLocked());
+    }
+}
@@ -13,8 +13,15 @@ package io.glutamate.util.concurrent;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 
+import org.assertj.core.api.Assertions;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -43,4 +50,108 @@ public class AwaitTest {
             }
         }), Duration.ofSeconds(1));
     }
+
+    @Test
+    public void testAll1() {
+        final List<String> result = Await.awaitAll(Arrays.asList(completedFuture("Foo"), completedFuture("Bar")),
+                Duration.ofSeconds(1));
+        Assert.assertEquals(Arrays.asList("Foo", "Bar"), result);
+    }
+
+    @Test
+    public void testAllFailFast() {
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+
+        Assertions.assertThatThrownBy(() -> {
+            Await.awaitAll(Arrays.asList(pending, Futures.<String> failed(new IllegalStateException())),
+                    Duration.ofSeconds(10), true);
+        })
+                .isInstanceOf(RuntimeException.class)
+                .hasCauseInstanceOf(ExecutionException.class);
+
+        Assert.assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testAllTimeout() {
+        final CompletableFuture<String> pending1 = new CompletableFuture<>();
+        final CompletableFuture<String> pending2 = new CompletableFuture<>();
+
+        final long start = System.nanoTime();
+
+        Assertions.assertThatThrownBy(() -> {
+            Await.awaitAll(Arrays.asList(pending1, pending2), Duration.ofMillis(100));
+        }).isInstanceOf(RuntimeException.class);
+
+        Assert.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_000);
+        Assert.assertFalse(pending1.isDone());
+    }
+
+    @Test
+    public void testAny1() {
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+
+        final String result = Await.awaitAny(Arrays.asList(pending, completedFuture("Foo")), Duration.ofSeconds(1));
+
+        Assert.assertEquals("Foo", result);
+        Assert.assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testAnyTimeout() {
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+
+        Assertions.assertThatThrownBy(() -> {
+            Await.awaitAny(Arrays.asList(pending), Duration.ofMillis(100));
+        }).isInstanceOf(RuntimeException.class);
+
+        Assert.assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testManagedBlock() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            final long before = Await.getManagedBlockCount();
+
+            final CompletableFuture<String> future = new CompletableFuture<>();
+
+            final ForkJoinTask<String> waiter = pool.submit(() -> Await.await(future, Duration.ofSeconds(5)));
+            // the only worker is blocked, the pool has to compensate to run this
+            pool.submit(() -> {
+                while (Await.getManagedBlockCount() == before) {
+                    Thread.yield();
+                }
+                future.complete("Foo");
+            });
+
+            Assert.assertEquals("Foo", waiter.get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(Await.getManagedBlockCount() > before);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSpinning1() {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture.runAsync(() -> future.complete("Foo"));
+
+        final String result = Await.await(future, Duration.ofSeconds(1),
+                Await.Strategy.spinning(Duration.ofMillis(1), Duration.ofMillis(1)));
+        Assert.assertEquals("Foo", result);
+    }
+
+    @Test
+    public void testSpinningTimeout() {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        final long start = System.nanoTime();
+
+        Assertions.assertThatThrownBy(() -> {
+            Await.await(future, Duration.ofMillis(50), Await.Strategy.spinning(Duration.ofSeconds(10)));
+        }).isInstanceOf(RuntimeException.class);
+
+        Assert.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_000);
+    }
 }
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Batcher}.
+ */
+public class BatcherTest {
+
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    private CompletionStage<Map<Integer, String>> load(final List<Integer> keys) {
+        this.batches.add(keys);
+        return Futures.succeeded(keys.stream()
+                .filter(key -> key >= 0)
+                .collect(Collectors.toMap(Function.identity(), key -> "#" + key)));
+    }
+
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        final Batcher<Integer, String> batcher = Batcher.of(this::load, 3, Duration.ofHours(1));
+
+        final CompletableFuture<String> f1 = batcher.load(1).toCompletableFuture();
+        final CompletableFuture<String> f2 = batcher.load(2).toCompletableFuture();
+        Assert.assertFalse(f1.isDone());
+
+        // coalesced with the first request
+        Assert.assertSame(f1, batcher.load(1));
+
+        final CompletableFuture<String> f3 = batcher.load(3).toCompletableFuture();
+
+        Assert.assertEquals("#1", f1.get());
+        Assert.assertEquals("#2", f2.get());
+        Assert.assertEquals("#3", f3.get());
+
+        Assert.assertEquals(1, this.batches.size());
+        Assert.assertEquals(4, batcher.getRequestCount());
+        Assert.assertEquals(3, batcher.getKeyCount());
+        Assert.assertEquals(1, batcher.getBatchSizeHistogram()[1]);
+    }
+
+    @Test
+    public void testMaxDelay() throws Exception {
+        final Batcher<Integer, String> batcher = Batcher.of(this::load, 100, Duration.ofMillis(20));
+
+        final CompletableFuture<String> f1 = batcher.load(1).toCompletableFuture();
+        final CompletableFuture<String> f2 = batcher.load(-1).toCompletableFuture();
+
+        Assert.assertEquals("#1", f1.get(5, TimeUnit.SECONDS));
+        Assertions.assertThatThrownBy(f2::get).hasCauseInstanceOf(NoSuchElementException.class);
+
+        Assert.assertEquals(1, batcher.getBatchCount());
+    }
+
+    @Test
+    public void testFailure() {
+        final Batcher<Integer, String> batcher = Batcher.of(keys -> {
+            throw new IllegalStateException();
+        }, 2, Duration.ofHours(1));
+
+        final CompletableFuture<String> f1 = batcher.load(1).toCompletableFuture();
+        batcher.flush();
+
+        Assertions.assertThatThrownBy(f1::get).hasCauseInstanceOf(IllegalStateException.class);
+
+        final Batcher<Integer, String> batcher2 = Batcher.of(keys -> Futures.failed(new IOException()), 1,
+                Duration.ofHours(1));
+        Assertions.assertThatThrownBy(batcher2.load(1).toCompletableFuture()::get)
+                .hasCauseInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void testNullResult() {
+        final Batcher<Integer, String> batcher = Batcher.of(keys -> null, 1, Duration.ofHours(1));
+        Assertions.assertThatThrownBy(batcher.load(1).toCompletableFuture()::get)
+                .hasCauseInstanceOf(NullPointerException.class);
+
+        final Batcher<Integer, String> batcher2 = Batcher.of(keys -> Futures.succeeded(null), 2,
+                Duration.ofHours(1));
+        final CompletableFuture<String> f1 = batcher2.load(1).toCompletableFuture();
+        final CompletableFuture<String> f2 = batcher2.load(2).toCompletableFuture();
+        Assertions.assertThatThrownBy(f1::get).hasCauseInstanceOf(NullPointerException.class);
+        Assertions.assertThatThrownBy(f2::get).hasCauseInstanceOf(NullPointerException.class);
+    }
+}
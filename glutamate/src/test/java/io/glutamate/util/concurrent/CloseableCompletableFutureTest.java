@@ -11,11 +11,24 @@
 package io.glutamate.util.concurrent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
+import io.glutamate.lang.Exceptions;
 import io.glutamate.util.concurrent.CloseableCompletableFuture;
 
 public class CloseableCompletableFutureTest {
@@ -55,4 +68,214 @@ public class CloseableCompletableFutureTest {
 
         assertEquals(1, triggered.get());
     }
+
+    @Test
+    public void testSharedSucceeded() throws Exception {
+        final CloseableCompletableFuture<Boolean> future = CloseableCompletableFuture.succeeded(true);
+        assertSame(future, CloseableCompletableFuture.succeeded(true));
+        assertNotSame(Futures.succeeded(true), future);
+
+        // already closed
+
+        final AtomicInteger triggered = new AtomicInteger();
+        future.whenClosed(triggered::incrementAndGet);
+        future.close();
+
+        assertEquals(1, triggered.get());
+        assertEquals(Boolean.TRUE, future.get());
+    }
+
+    @Test
+    public void testDerivedClose() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<String> future = new CloseableCompletableFuture<>();
+        future.whenClosed(triggered::incrementAndGet);
+
+        final CloseableCompletableFuture<Integer> derived = future
+                .thenApply(String::length)
+                .thenApply(i -> i * 2)
+                .whenComplete((v, e) -> {
+                });
+
+        future.complete("foo");
+        assertEquals(Integer.valueOf(6), derived.get());
+
+        derived.close();
+        derived.close();
+
+        assertEquals(1, triggered.get());
+    }
+
+    @Test
+    public void testComposedClose() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<String> inner = new CloseableCompletableFuture<>();
+        inner.whenClosed(triggered::incrementAndGet);
+
+        final CloseableCompletableFuture<String> future = new CloseableCompletableFuture<>();
+        future.whenClosed(triggered::incrementAndGet);
+
+        final CloseableCompletableFuture<String> composed = future.thenCompose(s -> inner);
+
+        future.complete("foo");
+        composed.close();
+
+        assertEquals(2, triggered.get());
+    }
+
+    @Test
+    public void testComposedAfterClose() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<String> inner = new CloseableCompletableFuture<>();
+        inner.whenClosed(triggered::incrementAndGet);
+
+        final CloseableCompletableFuture<String> future = new CloseableCompletableFuture<>();
+        final CloseableCompletableFuture<String> composed = future.thenCompose(s -> inner);
+
+        composed.close();
+        future.complete("foo");
+
+        assertEquals(1, triggered.get());
+    }
+
+    @Test
+    public void testDeregister() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<?> future = new CloseableCompletableFuture<>();
+        future.whenClosed(triggered::incrementAndGet);
+
+        for (int i = 0; i < 1_000_000; i++) {
+            final CloseableCompletableFuture.Registration registration = future.onClose(() -> {
+                throw new IllegalStateException();
+            });
+            assertTrue(registration.cancel());
+            assertFalse(registration.cancel());
+        }
+
+        assertTrue(future.getEntryCount() <= 64);
+
+        future.close();
+
+        assertEquals(1, triggered.get());
+    }
+
+    @Test
+    public void testDeregisterMany() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<?> future = new CloseableCompletableFuture<>();
+        future.whenClosed(triggered::incrementAndGet);
+
+        // register all first, so that compacting has to walk many remaining entries
+
+        final List<CloseableCompletableFuture.Registration> registrations = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            registrations.add(future.onClose(() -> {
+                throw new IllegalStateException();
+            }));
+        }
+        for (final CloseableCompletableFuture.Registration registration : registrations) {
+            assertTrue(registration.cancel());
+        }
+
+        assertTrue(future.getEntryCount() <= 65);
+
+        future.close();
+
+        assertEquals(1, triggered.get());
+    }
+
+    @Test
+    public void testDeregisterConcurrently() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<?> future = new CloseableCompletableFuture<>();
+
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    future.onClose(() -> {
+                        throw new IllegalStateException();
+                    }).cancel();
+                }
+                future.whenClosed(triggered::incrementAndGet);
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(future.getEntryCount() < 1_000);
+
+        future.close();
+
+        assertEquals(4, triggered.get());
+    }
+
+    @Test
+    public void testDeregisterAfterClose() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletableFuture<?> future = new CloseableCompletableFuture<>();
+        final CloseableCompletableFuture.Registration registration = future.onClose(triggered::incrementAndGet);
+
+        future.close();
+
+        assertFalse(registration.cancel());
+        assertFalse(future.onClose(triggered::incrementAndGet).cancel());
+        assertEquals(2, triggered.get());
+    }
+
+    @Test
+    public void testCloseConcurrently() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(4);
+
+        final CloseableCompletableFuture<?> future = new CloseableCompletableFuture<>();
+        for (int i = 0; i < 4; i++) {
+            future.whenClosed(() -> {
+                latch.countDown();
+                // would dead-lock when not run concurrently
+                Exceptions.wrap(() -> latch.await());
+                triggered.incrementAndGet();
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            future.close(executor, Duration.ofSeconds(5));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(4, triggered.get());
+    }
+
+    @Test
+    public void testCloseConcurrentlyErrors() throws Exception {
+        final CountDownLatch blocker = new CountDownLatch(1);
+
+        final CloseableCompletableFuture<?> future = new CloseableCompletableFuture<>();
+        future.whenClosed(() -> Exceptions.wrap(() -> blocker.await()));
+        future.whenClosed(() -> {
+            throw new IllegalStateException();
+        });
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Assertions.assertThatThrownBy(() -> future.close(executor, Duration.ofMillis(50)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .satisfies(e -> Assertions.assertThat(e.getSuppressed()).hasSize(1)
+                            .hasOnlyElementsOfType(TimeoutException.class));
+        } finally {
+            blocker.countDown();
+            executor.shutdown();
+        }
+    }
 }
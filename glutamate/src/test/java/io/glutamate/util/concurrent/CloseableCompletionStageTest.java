@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CloseableCompletionStage}.
+ */
+public class CloseableCompletionStageTest {
+
+    @Test
+    public void testDerivedClose() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CompletableFuture<String> source = new CompletableFuture<>();
+        final CloseableCompletionStage<String> stage = CloseableCompletionStage.of(source,
+                triggered::incrementAndGet);
+
+        final CloseableCompletionStage<Integer> derived = stage
+                .thenApply(String::length)
+                .handle((v, e) -> v * 2)
+                .thenCombine(Futures.succeeded(1), Integer::sum);
+
+        source.complete("foo");
+        Assert.assertEquals(Integer.valueOf(7), derived.toCompletableFuture().get());
+
+        derived.close();
+        derived.close();
+        stage.close();
+
+        Assert.assertEquals(1, triggered.get());
+    }
+
+    @Test
+    public void testComposedClose() throws Exception {
+        final AtomicInteger triggered = new AtomicInteger();
+
+        final CloseableCompletionStage<String> inner = CloseableCompletionStage.of(new CompletableFuture<>(),
+                triggered::incrementAndGet);
+
+        final CompletableFuture<String> source = new CompletableFuture<>();
+        final CloseableCompletionStage<String> composed = CloseableCompletionStage
+                .of(source, triggered::incrementAndGet)
+                .thenCompose(s -> inner);
+
+        source.complete("foo");
+        composed.close();
+
+        Assert.assertEquals(2, triggered.get());
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CloseablePublisher}.
+ */
+public class CloseablePublisherTest {
+
+    private static class TestSubscriber<T> implements CloseablePublisher.Subscriber<T> {
+
+        private final List<Object> signals = new CopyOnWriteArrayList<>();
+        private CloseablePublisher.Subscription subscription;
+
+        @Override
+        public void onSubscribe(final CloseablePublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final T item) {
+            this.signals.add(item);
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            this.signals.add(error);
+        }
+
+        @Override
+        public void onComplete() {
+            this.signals.add("complete");
+        }
+    }
+
+    private static Supplier<CompletionStage<Optional<Integer>>> range(final int count, final AtomicInteger pulls) {
+        return () -> {
+            final int next = pulls.getAndIncrement();
+            return Futures.succeeded(next < count ? Optional.of(next) : Optional.empty());
+        };
+    }
+
+    @Test
+    public void testBackpressure() {
+        final AtomicInteger pulls = new AtomicInteger();
+        final CloseablePublisher<Integer> publisher = CloseablePublisher.of(range(5, pulls));
+
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        Assert.assertEquals(0, pulls.get());
+
+        subscriber.subscription.request(2);
+        Assert.assertEquals(asList(0, 1), subscriber.signals);
+        Assert.assertEquals(2, pulls.get());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertEquals(asList(0, 1, 2, 3, 4, "complete"), subscriber.signals);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final CompletableFuture<Optional<String>> pending = new CompletableFuture<>();
+        final CloseablePublisher<String> publisher = CloseablePublisher.of(() -> pending);
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        publisher.close();
+
+        Assert.assertTrue(pending.isCancelled());
+        Assertions.assertThat(subscriber.signals).hasSize(1).hasOnlyElementsOfType(CancellationException.class);
+
+        // closing again does not signal twice
+        publisher.close();
+        Assert.assertEquals(1, subscriber.signals.size());
+
+        final TestSubscriber<String> late = new TestSubscriber<>();
+        publisher.subscribe(late);
+        Assertions.assertThat(late.signals).hasOnlyElementsOfType(IllegalStateException.class);
+    }
+
+    @Test
+    public void testCloseFirst() throws Exception {
+        final CompletableFuture<Optional<String>> pending = new CompletableFuture<>();
+        final CloseablePublisher<String> publisher = CloseablePublisher.of(() -> pending);
+
+        final CloseableCompletableFuture<String> first = publisher.first();
+        publisher.close();
+
+        Assertions.assertThatThrownBy(() -> first.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(CancellationException.class);
+        Assert.assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testError() {
+        final CloseablePublisher<String> publisher = CloseablePublisher.of(() -> Futures.failed(new IOException()));
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        Assertions.assertThat(subscriber.signals).hasSize(1).hasOnlyElementsOfType(IOException.class);
+    }
+
+    @Test
+    public void testNullStage() {
+        final CloseablePublisher<String> publisher = CloseablePublisher.of(() -> null);
+
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        Assertions.assertThat(subscriber.signals).hasSize(1).hasOnlyElementsOfType(NullPointerException.class);
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        final AtomicInteger pulls = new AtomicInteger();
+        final CloseablePublisher<Integer> publisher = CloseablePublisher.of(range(5, pulls));
+
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        subscriber.subscription.request(1);
+
+        Assertions.assertThat(subscriber.signals).hasSize(1).hasOnlyElementsOfType(IllegalArgumentException.class);
+        Assert.assertEquals(0, pulls.get());
+    }
+
+    @Test
+    public void testFailingSubscriber() {
+        final AtomicInteger pulls = new AtomicInteger();
+        final CloseablePublisher<Integer> publisher = CloseablePublisher.of(range(5, pulls));
+
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<Integer>() {
+
+            @Override
+            public void onNext(final Integer item) {
+                super.onNext(item);
+                throw new IllegalStateException();
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        Assertions.assertThat(subscriber.signals).hasSize(2);
+        Assert.assertEquals(0, subscriber.signals.get(0));
+        Assertions.assertThat(subscriber.signals.get(1)).isInstanceOf(IllegalStateException.class);
+        Assert.assertEquals(1, pulls.get());
+    }
+
+    @Test
+    public void testFirst() throws Exception {
+        final AtomicInteger pulls = new AtomicInteger();
+
+        Assert.assertEquals(Integer.valueOf(0), CloseablePublisher.of(range(5, pulls)).first().get());
+        Assert.assertEquals(1, pulls.get());
+
+        Assertions.assertThatThrownBy(CloseablePublisher.of(range(0, new AtomicInteger())).first()::get)
+                .hasCauseInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    public void testFromStage() throws Exception {
+        final CompletableFuture<String> stage = new CompletableFuture<>();
+
+        final CloseableCompletableFuture<String> first = CloseablePublisher.fromStage(stage).first();
+        stage.complete("foo");
+        Assert.assertEquals("foo", first.get(1, TimeUnit.SECONDS));
+
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+        CloseablePublisher.fromStage(pending).first().close();
+        Assert.assertTrue(pending.isCancelled());
+    }
+}
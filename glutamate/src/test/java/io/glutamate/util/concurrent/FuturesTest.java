@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Futures}.
+ */
+public class FuturesTest {
+
+    @Test
+    public void testFirstSuccessful1() throws Exception {
+        final CompletableFuture<String> loser = new CompletableFuture<>();
+        final CloseableCompletableFuture<String> closeableLoser = new CloseableCompletableFuture<>();
+        final CompletableFuture<String> winner = new CompletableFuture<>();
+
+        final AtomicInteger closed = new AtomicInteger();
+        closeableLoser.whenClosed(closed::incrementAndGet);
+
+        final CompletableFuture<String> result = Futures.firstSuccessful(asList(loser, closeableLoser, winner));
+        Assert.assertFalse(result.isDone());
+
+        winner.complete("Foo");
+
+        Assert.assertEquals("Foo", result.get());
+        Assert.assertTrue(loser.isCancelled());
+        Assert.assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testFirstSuccessful2() throws Exception {
+        final CompletableFuture<String> failing = new CompletableFuture<>();
+        final CompletableFuture<String> winner = new CompletableFuture<>();
+
+        final CompletableFuture<String> result = Futures.firstSuccessful(asList(failing, winner));
+
+        failing.completeExceptionally(new IOException());
+        Assert.assertFalse(result.isDone());
+
+        winner.complete("Foo");
+        Assert.assertEquals("Foo", result.get());
+    }
+
+    @Test
+    public void testFirstSuccessfulAllFailed() {
+        final CompletableFuture<String> result = Futures.firstSuccessful(asList(
+                Futures.failed(new IOException("Foo")),
+                Futures.failed(new IOException("Bar"))));
+
+        Assertions.assertThatThrownBy(result::join)
+                .hasCauseInstanceOf(IOException.class)
+                .satisfies(e -> Assert.assertEquals(1, e.getCause().getSuppressed().length));
+    }
+
+    @Test
+    public void testWithTimeout1() throws Exception {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final CompletableFuture<String> result = Futures.withTimeout(future, Duration.ofSeconds(10));
+
+        future.complete("Foo");
+
+        Assert.assertEquals("Foo", result.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWithTimeout2() {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final CompletableFuture<String> result = Futures.withTimeout(future, Duration.ofMillis(50));
+
+        Assertions.assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(TimeoutException.class);
+        Assert.assertFalse(future.isDone());
+    }
+
+    @Test
+    public void testDelayed() throws Exception {
+        final long start = System.nanoTime();
+
+        Futures.delayed(Duration.ofMillis(50)).get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testMapAsyncOrdered() throws Exception {
+        final List<Integer> source = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        final List<CompletableFuture<Integer>> pending = new ArrayList<>();
+        final List<Integer> result = new ArrayList<>();
+
+        final CompletableFuture<Void> done = Futures.mapAsync(source, i -> {
+            final CompletableFuture<Integer> future = new CompletableFuture<>();
+            pending.add(future);
+            return future.thenApply(x -> i * 2);
+        }, 10, true, result::add);
+
+        while (!done.isDone()) {
+            Assert.assertTrue(pending.size() <= 10);
+            // complete in reverse order
+            final List<CompletableFuture<Integer>> current = new ArrayList<>(pending);
+            pending.clear();
+            for (int i = current.size() - 1; i >= 0; i--) {
+                current.get(i).complete(0);
+            }
+        }
+
+        done.get();
+        Assert.assertEquals(source.stream().map(i -> i * 2).collect(Collectors.toList()), result);
+    }
+
+    @Test
+    public void testMapAsyncUnordered() throws Exception {
+        final AtomicInteger sum = new AtomicInteger();
+
+        Futures.mapAsync(IntStream.range(0, 10_000).iterator(), i -> CompletableFuture.supplyAsync(() -> i), 16,
+                false, sum::addAndGet).get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(IntStream.range(0, 10_000).sum(), sum.get());
+    }
+
+    @Test
+    public void testMapAsyncFailure() {
+        final AtomicInteger pulled = new AtomicInteger();
+
+        final Iterator<Integer> source = IntStream.range(0, 1_000)
+                .peek(i -> pulled.incrementAndGet())
+                .iterator();
+
+        final CompletableFuture<Void> done = Futures.mapAsync(source,
+                i -> i == 5 ? Futures.failed(new IOException()) : Futures.succeeded(i), 1, true, i -> {
+                });
+
+        Assertions.assertThatThrownBy(done::join).hasCauseInstanceOf(IOException.class);
+        Assert.assertEquals(6, pulled.get());
+    }
+
+    @Test
+    public void testSharedSucceeded() {
+        Assert.assertSame(Futures.succeeded(null), Futures.succeeded(null));
+        Assert.assertSame(Futures.succeeded(true), Futures.succeeded(Boolean.TRUE));
+        Assert.assertSame(Futures.succeeded(42), Futures.succeeded(42));
+        Assert.assertSame(Futures.succeeded(Optional.empty()), Futures.succeeded(Optional.empty()));
+
+        Assert.assertNotSame(Futures.succeeded(4242), Futures.succeeded(4242));
+        Assert.assertNotSame(Futures.succeeded("foo"), Futures.succeeded("foo"));
+
+        final CompletableFuture<Integer> shared = Futures.succeeded(42);
+
+        Assert.assertFalse(shared.complete(1));
+        Assert.assertFalse(shared.completeExceptionally(new IOException()));
+        Assert.assertFalse(shared.cancel(true));
+        Assertions.assertThatThrownBy(() -> shared.obtrudeValue(1))
+                .isInstanceOf(UnsupportedOperationException.class);
+        Assertions.assertThatThrownBy(() -> shared.obtrudeException(new IOException()))
+                .isInstanceOf(UnsupportedOperationException.class);
+
+        Assert.assertEquals(Integer.valueOf(42), shared.join());
+    }
+
+    @Test
+    public void testHedgedFirstWins() throws Exception {
+        final List<CloseableCompletableFuture<String>> attempts = new ArrayList<>();
+        final AtomicInteger closed = new AtomicInteger();
+
+        final CloseableCompletableFuture<String> result = Futures.hedged(() -> {
+            final CloseableCompletableFuture<String> attempt = new CloseableCompletableFuture<>();
+            attempt.whenClosed(closed::incrementAndGet);
+            synchronized (attempts) {
+                attempts.add(attempt);
+            }
+            return attempt;
+        }, HedgePolicy.of(2, 0.95, Duration.ofMillis(20)));
+
+        // wait for all hedges to be started
+
+        final long start = System.nanoTime();
+        while (true) {
+            synchronized (attempts) {
+                if (attempts.size() == 3) {
+                    break;
+                }
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Thread.sleep(10);
+        }
+
+        attempts.get(1).complete("foo");
+
+        Assert.assertEquals("foo", result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void testHedgedFailures() {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<String> result = Futures.hedged(() -> {
+            calls.incrementAndGet();
+            return Futures.failed(new IOException());
+        }, HedgePolicy.of(2, 0.95, Duration.ofHours(1)));
+
+        Assertions.assertThatThrownBy(result::join).hasCauseInstanceOf(IOException.class);
+        Assert.assertEquals(3, calls.get());
+        Assertions.assertThat(Futures.unwrap(result.handle((v, e) -> e).join()).getSuppressed()).hasSize(2);
+    }
+
+    @Test
+    public void testHedgedClose() throws Exception {
+        final CompletableFuture<String> attempt = new CompletableFuture<>();
+
+        final CloseableCompletableFuture<String> result = Futures.hedged(() -> attempt,
+                HedgePolicy.of(1, 0.95, Duration.ofHours(1)));
+
+        result.close();
+
+        Assert.assertTrue(result.isCancelled());
+        Assert.assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void testHedgedConcurrentLaunch() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        final CompletableFuture<String> second = new CompletableFuture<>();
+        final CountDownLatch hedging = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CloseableCompletableFuture<String> result = Futures.hedged(() -> {
+            switch (calls.incrementAndGet()) {
+            case 1:
+                return first;
+            case 2:
+                // the hedge started by the timer, keep it busy starting
+                hedging.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return second;
+            default:
+                return new CompletableFuture<>();
+            }
+        }, HedgePolicy.of(1, 0.95, Duration.ofMillis(10)));
+
+        Assert.assertTrue(hedging.await(5, TimeUnit.SECONDS));
+
+        // a failure while the hedge is still starting must not start another attempt
+        first.completeExceptionally(new IOException());
+        Assert.assertEquals(2, calls.get());
+
+        release.countDown();
+        second.complete("foo");
+
+        Assert.assertEquals("foo", result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testHedgedSupplierThrows() {
+        final CloseableCompletableFuture<String> result = Futures.hedged(() -> {
+            throw new IllegalStateException();
+        }, HedgePolicy.of(2, 0.95, Duration.ofHours(1)));
+
+        Assertions.assertThatThrownBy(result::join).hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testHedgedNullStage() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<String> first = new CompletableFuture<>();
+
+        // the hedge, started by the timer, returns null
+
+        final CloseableCompletableFuture<String> result = Futures.hedged(
+                () -> calls.incrementAndGet() == 1 ? first : null, HedgePolicy.of(1, 0.95, Duration.ofMillis(10)));
+
+        Assertions.assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(NullPointerException.class);
+        Assert.assertTrue(first.isCancelled());
+    }
+
+    @Test
+    public void testHedgePolicyDelay() {
+        final HedgePolicy policy = HedgePolicy.of(1, 0.5, Duration.ofSeconds(1));
+        Assert.assertEquals(Duration.ofSeconds(1), policy.getDelay());
+
+        for (int i = 0; i < 100; i++) {
+            policy.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        Assertions.assertThat(policy.getDelay()).isBetween(Duration.ofMillis(10), Duration.ofMillis(13));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<Integer> result = Futures.retry(() -> {
+            final int call = calls.incrementAndGet();
+            return call < 3 ? Futures.failed(new IOException()) : Futures.succeeded(call);
+        }, RetryPolicy.builder().maxAttempts(5).exponentialBackoff(Duration.ofMillis(1), Duration.ofMillis(10))
+                .build());
+
+        Assert.assertEquals(Integer.valueOf(3), result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testRetryExhausted() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<Integer> result = Futures.retry(() -> {
+            calls.incrementAndGet();
+            return Futures.failed(new IOException());
+        }, RetryPolicy.builder().maxAttempts(3).build());
+
+        Assertions.assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+        Assert.assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testRetryNullStage() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<Integer> result = Futures.retry(() -> {
+            final int call = calls.incrementAndGet();
+            return call < 3 ? null : Futures.succeeded(call);
+        }, RetryPolicy.builder().maxAttempts(5).exponentialBackoff(Duration.ofMillis(1), Duration.ofMillis(10))
+                .build());
+
+        Assert.assertEquals(Integer.valueOf(3), result.get(5, TimeUnit.SECONDS));
+
+        final CloseableCompletableFuture<Integer> failed = Futures.retry(() -> null,
+                RetryPolicy.builder().maxAttempts(2).build());
+
+        Assertions.assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(NullPointerException.class);
+    }
+
+    @Test
+    public void testRetryOn() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<Integer> result = Futures.retry(() -> {
+            calls.incrementAndGet();
+            return Futures.failed(new RuntimeException(new IllegalStateException()));
+        }, RetryPolicy.builder().maxAttempts(3).retryOn(IOException.class::isInstance).build());
+
+        Assertions.assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(RuntimeException.class);
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRetryDeadline() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<Integer> result = Futures.retry(() -> {
+            calls.incrementAndGet();
+            return Futures.failed(new IOException());
+        }, RetryPolicy.builder().maxAttempts(100).fixedBackoff(Duration.ofSeconds(1)).deadline(Duration.ofMillis(500))
+                .build());
+
+        Assertions.assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IOException.class);
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRetryClose() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        final CloseableCompletableFuture<Integer> result = Futures.retry(() -> {
+            calls.incrementAndGet();
+            return Futures.failed(new IOException());
+        }, RetryPolicy.builder().maxAttempts(3).fixedBackoff(Duration.ofMillis(50)).build());
+
+        result.close();
+        Thread.sleep(200);
+
+        Assert.assertTrue(result.isCancelled());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRetryBackoff() {
+        final RetryPolicy exponential = RetryPolicy.builder()
+                .exponentialBackoff(Duration.ofNanos(10), Duration.ofNanos(50)).build();
+
+        Assert.assertEquals(10, exponential.nextDelay(0));
+        Assert.assertEquals(20, exponential.nextDelay(10));
+        Assert.assertEquals(50, exponential.nextDelay(40));
+
+        final RetryPolicy jitter = RetryPolicy.builder()
+                .decorrelatedJitterBackoff(Duration.ofNanos(10), Duration.ofNanos(100)).build();
+
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            final long next = jitter.nextDelay(delay);
+            Assertions.assertThat(next).isBetween(10L, delay <= 0 ? 10L : Math.min(100L, delay * 3));
+            delay = next;
+        }
+    }
+}
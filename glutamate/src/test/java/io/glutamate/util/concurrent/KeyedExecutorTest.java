@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link KeyedExecutor}.
+ */
+public class KeyedExecutorTest {
+
+    @Test
+    public void testOrderPerKey() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final KeyedExecutor<String> keyed = KeyedExecutor.of(executor, 16);
+
+            final Map<String, List<Integer>> results = new HashMap<>();
+            for (int k = 0; k < 10; k++) {
+                results.put("key" + k, new ArrayList<>());
+            }
+
+            final CountDownLatch done = new CountDownLatch(10 * 1_000);
+
+            for (int i = 0; i < 1_000; i++) {
+                final int value = i;
+                for (final Map.Entry<String, List<Integer>> entry : results.entrySet()) {
+                    keyed.execute(entry.getKey(), () -> {
+                        entry.getValue().add(value);
+                        done.countDown();
+                    });
+                }
+            }
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            for (final List<Integer> result : results.values()) {
+                for (int i = 0; i < 1_000; i++) {
+                    Assert.assertEquals(Integer.valueOf(i), result.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelQueued() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final KeyedExecutor<String> keyed = KeyedExecutor.of(executor, 4);
+
+            final CountDownLatch blocker = new CountDownLatch(1);
+            final AtomicBoolean executed = new AtomicBoolean();
+
+            final CloseableCompletableFuture<Boolean> first = keyed.submit("foo",
+                    () -> blocker.await(5, TimeUnit.SECONDS));
+            final CloseableCompletableFuture<Boolean> second = keyed.submit("foo", () -> executed.getAndSet(true));
+
+            // the first task might have been started already
+            Assertions.assertThat(keyed.getQueueDepth()).isBetween(1L, 2L);
+
+            second.close();
+            blocker.countDown();
+
+            Assert.assertTrue(first.get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(second.isCancelled());
+
+            keyed.submit("foo", () -> null).get(5, TimeUnit.SECONDS);
+
+            Assert.assertFalse(executed.get());
+            Assert.assertEquals(0, keyed.getQueueDepth());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
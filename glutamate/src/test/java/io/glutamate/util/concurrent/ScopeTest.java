@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Scope}.
+ */
+public class ScopeTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void cleanup() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testJoinAll() throws Exception {
+        try (Scope<String> scope = Scope.open(this.executor, Duration.ofSeconds(5))) {
+            scope.fork(() -> "foo");
+            scope.fork(() -> "bar");
+
+            Assert.assertEquals(asList("foo", "bar"), scope.joinAll());
+        }
+    }
+
+    @Test
+    public void testJoinAllFailure() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+
+        try (Scope<String> scope = Scope.open(this.executor, Duration.ofSeconds(5))) {
+            final CloseableCompletableFuture<String> slow = scope.fork(() -> {
+                try {
+                    Thread.sleep(10_000);
+                } catch (final InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return "foo";
+            });
+            scope.fork(() -> {
+                throw new IOException("bar");
+            });
+
+            Assertions.assertThatThrownBy(scope::joinAll).isInstanceOf(IOException.class).hasMessage("bar");
+            Assert.assertTrue(slow.isCancelled());
+        }
+
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testJoinAllSuppressed() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+
+        try (Scope<String> scope = Scope.open(this.executor)) {
+            for (int i = 0; i < 2; i++) {
+                final int value = i;
+                scope.fork(() -> {
+                    latch.countDown();
+                    latch.await();
+                    throw new IOException("" + value);
+                });
+            }
+
+            // wait for both to fail
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+
+            Assertions.assertThatThrownBy(scope::joinAll).isInstanceOf(IOException.class).hasMessage("0")
+                    .satisfies(e -> Assertions.assertThat(e.getSuppressed()).hasSize(1));
+        }
+    }
+
+    @Test
+    public void testJoinAllTimeout() throws Exception {
+        try (Scope<String> scope = Scope.open(this.executor, Duration.ofMillis(50))) {
+            final CloseableCompletableFuture<String> slow = scope.fork(() -> {
+                Thread.sleep(10_000);
+                return "foo";
+            });
+
+            Assertions.assertThatThrownBy(scope::joinAll).isInstanceOf(TimeoutException.class);
+            Assert.assertTrue(slow.isCancelled());
+        }
+    }
+
+    @Test
+    public void testJoinAny() throws Exception {
+        try (Scope<String> scope = Scope.open(this.executor, Duration.ofSeconds(5))) {
+            final CloseableCompletableFuture<String> slow = scope.fork(() -> {
+                Thread.sleep(10_000);
+                return "foo";
+            });
+            scope.fork(() -> {
+                throw new IOException();
+            });
+            scope.fork(() -> "bar");
+
+            Assert.assertEquals("bar", scope.joinAny());
+            Assert.assertTrue(slow.isCancelled());
+        }
+    }
+
+    @Test
+    public void testJoinAnyFailure() throws Exception {
+        try (Scope<String> scope = Scope.open(this.executor, Duration.ofSeconds(5))) {
+            scope.fork(() -> {
+                throw new IOException();
+            });
+
+            Assertions.assertThatThrownBy(scope::joinAny).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final CloseableCompletableFuture<String> child;
+
+        try (Scope<String> scope = Scope.open(this.executor)) {
+            child = scope.fork(() -> {
+                Thread.sleep(10_000);
+                return "foo";
+            });
+        }
+
+        Assert.assertTrue(child.isCancelled());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        this.executor.shutdown();
+
+        try (Scope<String> scope = Scope.open(this.executor)) {
+            final CloseableCompletableFuture<String> child = scope.fork(() -> "foo");
+
+            Assertions.assertThatThrownBy(child::get).hasCauseInstanceOf(RejectedExecutionException.class);
+            Assertions.assertThatThrownBy(scope::joinAll).isInstanceOf(RejectedExecutionException.class);
+        }
+    }
+
+    @Test
+    public void testKeepForeignInterrupt() throws Exception {
+        try (Scope<String> scope = Scope.open(Runnable::run)) {
+            Thread.currentThread().interrupt();
+
+            final CloseableCompletableFuture<String> child = scope.fork(() -> "foo");
+
+            // the scope did not raise the interrupt, so it must not clear it
+            Assert.assertTrue(Thread.interrupted());
+            Assert.assertEquals("foo", child.get());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SerialExecutor}.
+ */
+public class SerialExecutorTest {
+
+    @Test
+    public void testOrder() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final SerialExecutor serial = SerialExecutor.of(executor, 4);
+
+            final List<Integer> result = new ArrayList<>();
+            final AtomicInteger active = new AtomicInteger();
+            final AtomicInteger overlaps = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(10_000);
+
+            for (int i = 0; i < 10_000; i++) {
+                final int value = i;
+                serial.execute(() -> {
+                    if (active.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    // not synchronized, relying on the happens-before relation
+                    result.add(value);
+                    active.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, overlaps.get());
+
+            for (int i = 0; i < 10_000; i++) {
+                Assert.assertEquals(Integer.valueOf(i), result.get(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingTask() throws Exception {
+        final SerialExecutor serial = SerialExecutor.of(Runnable::run);
+
+        final AtomicInteger counter = new AtomicInteger();
+
+        final Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+        Thread.currentThread().setUncaughtExceptionHandler((t, e) -> counter.addAndGet(10));
+        try {
+            serial.execute(() -> {
+                throw new IllegalStateException();
+            });
+            serial.execute(counter::incrementAndGet);
+        } finally {
+            Thread.currentThread().setUncaughtExceptionHandler(handler);
+        }
+
+        Assert.assertEquals(11, counter.get());
+    }
+
+    @Test
+    public void testAsyncStages() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final SerialExecutor serial = SerialExecutor.of(executor);
+
+            final String result = CompletableFuture.supplyAsync(() -> "foo", serial)
+                    .thenApplyAsync(s -> s + "bar", serial)
+                    .get(5, TimeUnit.SECONDS);
+
+            Assert.assertEquals("foobar", result);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejected() {
+        final List<String> log = new ArrayList<>();
+        final Runnable r = () -> log.add("r");
+        final Runnable s = () -> log.add("s");
+
+        final AtomicInteger calls = new AtomicInteger();
+        final SerialExecutor[] serial = new SerialExecutor[1];
+
+        serial[0] = SerialExecutor.of(task -> {
+            switch (calls.incrementAndGet()) {
+            case 1:
+                // submitted by others, while the queue is scheduled
+                serial[0].execute(r);
+                serial[0].execute(s);
+                throw new RejectedExecutionException();
+            case 2:
+                throw new RejectedExecutionException();
+            default:
+                task.run();
+            }
+        });
+
+        Assertions.assertThatThrownBy(() -> serial[0].execute(() -> log.add("x")))
+                .isInstanceOf(RejectedExecutionException.class);
+        Assert.assertEquals(2, serial[0].getQueueSize());
+
+        // the same command again, must only remove this submission
+
+        Assertions.assertThatThrownBy(() -> serial[0].execute(r)).isInstanceOf(RejectedExecutionException.class);
+        Assert.assertEquals(2, serial[0].getQueueSize());
+
+        // queued tasks run with the next submission
+
+        serial[0].execute(() -> log.add("y"));
+        Assert.assertEquals(asList("r", "s", "y"), log);
+    }
+}
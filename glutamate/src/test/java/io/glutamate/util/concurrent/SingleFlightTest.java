@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2018 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package io.glutamate.util.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testShared() throws Exception {
+        final SingleFlight<String, String> flight = SingleFlight.create();
+        final AtomicInteger calls = new AtomicInteger();
+        final CompletableFuture<String> call = new CompletableFuture<>();
+
+        final CloseableCompletableFuture<String> f1 = flight.execute("foo", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        final CloseableCompletableFuture<String> f2 = flight.execute("foo", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+
+        Assert.assertNotSame(f1, f2);
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(1, flight.getInFlightCount());
+
+        call.complete("bar");
+
+        Assert.assertEquals("bar", f1.get());
+        Assert.assertEquals("bar", f2.get());
+        Assert.assertEquals(0, flight.getInFlightCount());
+
+        // a new call after completion
+
+        flight.execute("foo", () -> {
+            calls.incrementAndGet();
+            return call;
+        });
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testCancelWhenAllClosed() throws Exception {
+        final SingleFlight<String, String> flight = SingleFlight.create();
+        final CompletableFuture<String> call = new CompletableFuture<>();
+
+        final CloseableCompletableFuture<String> f1 = flight.execute("foo", () -> call);
+        final CloseableCompletableFuture<String> f2 = flight.execute("foo", () -> call);
+
+        f1.close();
+        Assert.assertFalse(call.isCancelled());
+
+        f2.close();
+        Assert.assertTrue(call.isCancelled());
+        Assert.assertTrue(f1.isCancelled());
+        Assert.assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    public void testNullStage() throws Exception {
+        final SingleFlight<String, String> flight = SingleFlight.create();
+
+        final CloseableCompletableFuture<String> f1 = flight.execute("foo", () -> null);
+        Assertions.assertThatThrownBy(f1::get).hasCauseInstanceOf(NullPointerException.class);
+        Assert.assertEquals(0, flight.getInFlightCount());
+
+        // the key is not blocked by the failed call
+
+        Assert.assertEquals("bar", flight.execute("foo", () -> Futures.succeeded("bar")).get(1, TimeUnit.SECONDS));
+    }
+}